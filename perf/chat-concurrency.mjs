@@ -0,0 +1,153 @@
+// 并发对话压测：固定数量的并发对话持续发起请求，统计成功率、首字节时间和完成时间
+// 只依赖Node.js（18+）标准库
+//
+// node perf/chat-concurrency.mjs --base-url http://localhost:9092 --vus 200 --duration 60 \
+//      --mode streaming --label platform
+//
+// 参数：
+//   --base-url   服务地址，默认 http://localhost:9092
+//   --token      登录后的JWT，作为 Authorization: Bearer <token>，关闭认证时可不传
+//   --agent-id   智能体ID，为空时使用默认应用
+//   --vus        并发对话数，默认 100
+//   --duration   持续时间（秒），默认 60
+//   --mode       streaming 或 blocking，默认 streaming
+//   --timeout    单个对话超时（秒），默认 120
+//   --label      本次测试的标记（如 platform、virtual），写入结果文件名
+//   --out-dir    结果目录，默认 perf/results
+import http from 'node:http';
+import fs from 'node:fs';
+import path from 'node:path';
+
+const args = {};
+for (let i = 2; i < process.argv.length; i += 2) {
+    args[process.argv[i].replace(/^--/, '')] = process.argv[i + 1];
+}
+const baseUrl = new URL(args['base-url'] || 'http://localhost:9092');
+const token = args.token || '';
+const agentId = args['agent-id'] || '';
+const vus = parseInt(args.vus || '100', 10);
+const durationMs = parseFloat(args.duration || '60') * 1000;
+const mode = args.mode || 'streaming';
+const timeoutMs = parseFloat(args.timeout || '120') * 1000;
+const label = args.label || 'run';
+const outDir = args['out-dir'] || 'perf/results';
+
+const agent = new http.Agent({ keepAlive: true, maxSockets: Infinity });
+const requestPath = '/v1/chat-messages' + (agentId ? `?agentId=${encodeURIComponent(agentId)}` : '');
+
+const firstByte = [];
+const completed = [];
+let ok = 0;
+let failed = 0;
+const errors = {};
+
+function chat(vu) {
+    const body = JSON.stringify({
+        inputs: {},
+        query: '压测问题：请简要介绍一下本系统',
+        response_mode: mode,
+        conversation_id: '',
+        user: `perf-${vu}`,
+    });
+    const headers = { 'Content-Type': 'application/json', 'Content-Length': Buffer.byteLength(body) };
+    if (token) {
+        headers.Authorization = `Bearer ${token}`;
+    }
+
+    return new Promise((resolve) => {
+        const start = process.hrtime.bigint();
+        let first = null;
+        let text = '';
+        const done = (success, reason) => {
+            if (success) {
+                ok++;
+                firstByte.push(first);
+                completed.push(Number(process.hrtime.bigint() - start) / 1e6);
+            } else {
+                failed++;
+                errors[reason] = (errors[reason] || 0) + 1;
+            }
+            resolve();
+        };
+
+        const req = http.request({
+            hostname: baseUrl.hostname,
+            port: baseUrl.port,
+            path: requestPath,
+            method: 'POST',
+            headers,
+            agent,
+            timeout: timeoutMs,
+        }, (res) => {
+            res.setEncoding('utf8');
+            res.on('data', (chunk) => {
+                if (first === null) {
+                    first = Number(process.hrtime.bigint() - start) / 1e6;
+                }
+                text += chunk;
+            });
+            res.on('end', () => {
+                if (res.statusCode !== 200) {
+                    done(false, `status_${res.statusCode}`);
+                } else if (mode === 'streaming' ? !text.includes('"message_end"') : !text.includes('"answer"')) {
+                    // 流式响应以message_end结束，阻塞响应包含answer
+                    done(false, 'incomplete');
+                } else {
+                    done(true);
+                }
+            });
+            res.on('error', (e) => done(false, e.code || 'response_error'));
+        });
+        req.on('timeout', () => req.destroy(Object.assign(new Error('timeout'), { code: 'timeout' })));
+        req.on('error', (e) => done(false, e.code || 'request_error'));
+        req.end(body);
+    });
+}
+
+function percentile(values, p) {
+    if (values.length === 0) {
+        return 0;
+    }
+    const sorted = Float64Array.from(values).sort();
+    return sorted[Math.min(sorted.length - 1, Math.ceil(p / 100 * sorted.length) - 1)];
+}
+
+const deadline = Date.now() + durationMs;
+const started = Date.now();
+await Promise.all(Array.from({ length: vus }, async (_, vu) => {
+    while (Date.now() < deadline) {
+        await chat(vu);
+    }
+}));
+const elapsedSeconds = (Date.now() - started) / 1000;
+agent.destroy();
+
+const total = ok + failed;
+const summary = {
+    label, mode, vus,
+    durationSeconds: elapsedSeconds,
+    chats: total,
+    ok,
+    failed,
+    errors,
+    chatsPerSecond: ok / elapsedSeconds,
+    okRate: total === 0 ? 0 : ok / total,
+    firstByteMs: { p50: percentile(firstByte, 50), p95: percentile(firstByte, 95), p99: percentile(firstByte, 99) },
+    completedMs: { p50: percentile(completed, 50), p95: percentile(completed, 95), p99: percentile(completed, 99) },
+};
+
+fs.mkdirSync(outDir, { recursive: true });
+fs.writeFileSync(path.join(outDir, `${label}-${mode}-${vus}.json`), JSON.stringify(summary, null, 2));
+console.log([
+    `label=${label}`,
+    `mode=${mode}`,
+    `vus=${vus}`,
+    `chats=${total}`,
+    `chats_per_s=${summary.chatsPerSecond.toFixed(2)}`,
+    `ok_rate=${(summary.okRate * 100).toFixed(2)}%`,
+    `first_byte_p95=${summary.firstByteMs.p95.toFixed(0)}ms`,
+    `completed_p95=${summary.completedMs.p95.toFixed(0)}ms`,
+    Object.keys(errors).length ? `errors=${JSON.stringify(errors)}` : '',
+].filter(Boolean).join(' '));
+// 成功率低于99%时返回非0
+process.exitCode = summary.okRate >= 0.99 ? 0 : 1;
@@ -0,0 +1,124 @@
+#!/usr/bin/env python3
+"""
+模拟Dify对话接口，用于并发对话压测，排除真实模型生成速度的影响
+
+- POST /v1/chat-messages  streaming模式按固定间隔输出SSE事件，blocking模式等待同样的时长后返回完整回答
+- POST /v1/chat-messages/{task_id}/stop  停止生成
+
+用法: python3 mock-dify.py --port 18080 --tokens 50 --interval-ms 40
+服务启动时设置 DIFY_URL=http://<本机地址>:18080
+"""
+import argparse
+import asyncio
+import json
+import time
+import uuid
+
+args = None
+
+
+async def read_request(reader):
+    head = await reader.readuntil(b"\r\n\r\n")
+    lines = head.decode("latin-1").split("\r\n")
+    method, path, _ = lines[0].split(" ", 2)
+    headers = {}
+    for line in lines[1:]:
+        if ":" in line:
+            name, value = line.split(":", 1)
+            headers[name.strip().lower()] = value.strip()
+    length = int(headers.get("content-length", "0"))
+    body = await reader.readexactly(length) if length else b""
+    return method, path, headers, body
+
+
+async def write_chunk(writer, data):
+    writer.write(b"%x\r\n" % len(data) + data + b"\r\n")
+    await writer.drain()
+
+
+async def stream_chat(writer, request):
+    task_id = str(uuid.uuid4())
+    message_id = str(uuid.uuid4())
+    conversation_id = request.get("conversation_id") or str(uuid.uuid4())
+    writer.write(b"HTTP/1.1 200 OK\r\n"
+                 b"Content-Type: text/event-stream\r\n"
+                 b"Cache-Control: no-cache\r\n"
+                 b"Transfer-Encoding: chunked\r\n\r\n")
+
+    def event(payload):
+        payload.update(task_id=task_id, message_id=message_id, conversation_id=conversation_id)
+        return ("data: " + json.dumps(payload, ensure_ascii=False) + "\n\n").encode("utf-8")
+
+    await write_chunk(writer, event({"event": "workflow_started", "workflow_run_id": str(uuid.uuid4())}))
+    for i in range(args.tokens):
+        await asyncio.sleep(args.interval_ms / 1000)
+        await write_chunk(writer, event({"event": "message", "answer": "字%d" % i, "created_at": int(time.time())}))
+    await write_chunk(writer, event({"event": "message_end", "metadata": {}}))
+    writer.write(b"0\r\n\r\n")
+    await writer.drain()
+
+
+async def blocking_chat(writer, request):
+    await asyncio.sleep(args.tokens * args.interval_ms / 1000)
+    body = json.dumps({
+        "event": "message",
+        "task_id": str(uuid.uuid4()),
+        "message_id": str(uuid.uuid4()),
+        "conversation_id": request.get("conversation_id") or str(uuid.uuid4()),
+        "answer": "".join("字%d" % i for i in range(args.tokens)),
+        "created_at": int(time.time()),
+    }, ensure_ascii=False).encode("utf-8")
+    write_response(writer, 200, body)
+    await writer.drain()
+
+
+def write_response(writer, status, body):
+    reason = {200: "OK", 404: "Not Found"}.get(status, "OK")
+    writer.write(("HTTP/1.1 %d %s\r\nContent-Type: application/json\r\nContent-Length: %d\r\n\r\n"
+                  % (status, reason, len(body))).encode("latin-1") + body)
+
+
+async def handle(reader, writer):
+    try:
+        while True:
+            try:
+                method, path, headers, body = await read_request(reader)
+            except (asyncio.IncompleteReadError, ConnectionError):
+                break
+            path = path.split("?", 1)[0]
+            if method == "POST" and path == "/v1/chat-messages":
+                request = json.loads(body or b"{}")
+                if request.get("response_mode") == "streaming":
+                    await stream_chat(writer, request)
+                else:
+                    await blocking_chat(writer, request)
+            elif method == "POST" and path.startswith("/v1/chat-messages/") and path.endswith("/stop"):
+                write_response(writer, 200, b'{"result": "success"}')
+                await writer.drain()
+            else:
+                write_response(writer, 404, b'{"code": "not_found"}')
+                await writer.drain()
+            if headers.get("connection", "").lower() == "close":
+                break
+    except ConnectionError:
+        pass
+    finally:
+        writer.close()
+
+
+async def main():
+    server = await asyncio.start_server(handle, args.host, args.port, backlog=4096)
+    print("模拟Dify已启动: http://%s:%d，每个回答%d个事件，间隔%dms"
+          % (args.host, args.port, args.tokens, args.interval_ms), flush=True)
+    async with server:
+        await server.serve_forever()
+
+
+if __name__ == "__main__":
+    parser = argparse.ArgumentParser(description="模拟Dify对话接口")
+    parser.add_argument("--host", default="0.0.0.0")
+    parser.add_argument("--port", type=int, default=18080)
+    parser.add_argument("--tokens", type=int, default=50, help="每个回答的message事件数")
+    parser.add_argument("--interval-ms", type=int, default=40, help="事件间隔（毫秒）")
+    args = parser.parse_args()
+    asyncio.run(main())
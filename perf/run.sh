@@ -0,0 +1,31 @@
+#!/usr/bin/env bash
+# 按并发数逐级压测对话接口，每级的摘要写入 results/<LABEL>-<MODE>-<VUS>.json
+#
+# LABEL=platform ./perf/run.sh            # 平台线程（VIRTUAL_THREADS_ENABLED=false）
+# LABEL=virtual  ./perf/run.sh            # 虚拟线程（VIRTUAL_THREADS_ENABLED=true）
+#
+# 可选环境变量：BASE_URL、TOKEN、AGENT_ID、MODE（streaming/blocking）、DURATION（秒）、LEVELS（空格分隔的并发数）
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+
+LEVELS=${LEVELS:-"50 100 200 400 800 1600"}
+MODE=${MODE:-streaming}
+LABEL=${LABEL:-run}
+DURATION=${DURATION:-60}
+OUT_DIR=perf/results
+
+mkdir -p "$OUT_DIR"
+for vus in $LEVELS; do
+    echo "== ${LABEL} ${MODE} 并发 ${vus} =="
+    # 成功率低于99%时返回非0，继续测试下一级
+    node perf/chat-concurrency.mjs \
+        --base-url "${BASE_URL:-http://localhost:9092}" \
+        --token "${TOKEN:-}" \
+        --agent-id "${AGENT_ID:-}" \
+        --vus "$vus" \
+        --duration "$DURATION" \
+        --mode "$MODE" \
+        --label "$LABEL" \
+        --out-dir "$OUT_DIR" | tee -a "$OUT_DIR/${LABEL}-${MODE}.txt" || true
+done
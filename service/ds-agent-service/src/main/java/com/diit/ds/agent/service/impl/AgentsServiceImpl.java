@@ -99,14 +99,11 @@ public class AgentsServiceImpl extends ServiceImpl<AgentsMapper, Agents> impleme
             condition = "favorite_count = favorite_count - 1";
         }
         if (i > 0){
-            // 更新智能体收藏数,这里需要加锁
+            // 更新智能体收藏数，favorite_count = favorite_count ± 1 由数据库行锁保证原子性，无需应用层加锁
             LambdaUpdateWrapper<Agents> wrapper = new LambdaUpdateWrapper<>();
             wrapper.eq(Agents::getId, params.getAgentId())
                     .setSql(condition);
-            // 这里需要加锁
-            synchronized (this){
-                this.update(wrapper);
-            }
+            this.update(wrapper);
             return true;
         }
         return false;
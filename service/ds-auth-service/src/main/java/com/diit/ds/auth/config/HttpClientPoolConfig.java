@@ -0,0 +1,73 @@
+package com.diit.ds.auth.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * 外部服务调用的HTTP连接池配置
+ *
+ * 各外部服务（路由）的连接数上限和连接超时取自resilience.backends中对应服务的
+ * max-concurrent-calls和connect-timeout，此处为未配置服务的默认值
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "http-client")
+public class HttpClientPoolConfig {
+    /**
+     * 连接池最大连接数
+     */
+    private int maxTotal = 400;
+
+    /**
+     * 每个路由（目标主机）的默认最大连接数
+     */
+    private int defaultMaxPerRoute = 50;
+
+    /**
+     * 连接超时
+     */
+    private Duration connectTimeout = Duration.ofSeconds(5);
+
+    /**
+     * 从连接池获取连接的最长等待时间
+     */
+    private Duration connectionRequestTimeout = Duration.ofSeconds(5);
+
+    /**
+     * 默认读取超时，已配置的外部服务按操作类型覆盖
+     */
+    private Duration readTimeout = Duration.ofSeconds(120);
+
+    /**
+     * 连接空闲超过该时间后复用前先检查是否可用
+     */
+    private Duration validateAfterInactivity = Duration.ofSeconds(2);
+
+    /**
+     * 空闲连接的最长保留时间，超过后由后台线程关闭
+     */
+    private Duration maxIdleTime = Duration.ofSeconds(30);
+
+    /**
+     * 连接的最长存活时间，避免长期持有已被服务端或中间设备回收的连接
+     */
+    private Duration connectionTimeToLive = Duration.ofMinutes(10);
+
+    /**
+     * 是否请求gzip/deflate压缩响应并自动解压
+     */
+    private boolean compression = true;
+
+    /**
+     * TLS会话缓存数量，重建HTTPS连接时可恢复会话而无需完整握手
+     */
+    private int tlsSessionCacheSize = 1000;
+
+    /**
+     * TLS会话缓存有效期
+     */
+    private Duration tlsSessionTimeout = Duration.ofHours(1);
+}
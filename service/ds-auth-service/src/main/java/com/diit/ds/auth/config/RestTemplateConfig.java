@@ -1,26 +1,59 @@
 package com.diit.ds.auth.config;
 
+import com.diit.ds.common.resilience.AbortableRequest;
+import com.diit.ds.common.resilience.OutboundResilience;
+import com.diit.ds.common.resilience.ResilienceInterceptor;
+import com.diit.ds.common.resilience.ResilienceProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.client5.http.ssl.NoopHostnameVerifier;
+import org.apache.hc.client5.http.ssl.SSLConnectionSocketFactoryBuilder;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.http.client.ClientHttpRequestFactory;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
 import javax.net.ssl.*;
-import java.io.IOException;
-import java.net.HttpURLConnection;
+import java.net.URI;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * RestTemplate配置类
  */
+@Slf4j
 @Configuration
 public class RestTemplateConfig {
 
-    @Bean
-    public RestTemplate restTemplate() throws NoSuchAlgorithmException, KeyManagementException {
+    /**
+     * 所有外部服务共用的连接池HTTP客户端，保持长连接复用，避免每次调用重新建立TCP和TLS连接
+     */
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient outboundHttpClient(HttpClientPoolConfig httpClientPoolConfig,
+                                                  ResilienceProperties resilienceProperties,
+                                                  MeterRegistry meterRegistry)
+            throws NoSuchAlgorithmException, KeyManagementException {
         // 创建信任管理器
         TrustManager[] trustAllCerts = new TrustManager[]{
                 new X509TrustManager() {
@@ -34,38 +67,141 @@ public class RestTemplateConfig {
                 }
         };
 
-        // 创建SSL上下文
+        // 创建SSL上下文，所有连接共用同一个上下文，TLS会话缓存在连接间共享
         SSLContext sslContext = SSLContext.getInstance("TLS");
         sslContext.init(null, trustAllCerts, new java.security.SecureRandom());
+        sslContext.getClientSessionContext().setSessionCacheSize(httpClientPoolConfig.getTlsSessionCacheSize());
+        sslContext.getClientSessionContext().setSessionTimeout((int) httpClientPoolConfig.getTlsSessionTimeout().toSeconds());
+
+        ConnectionConfig defaultConnectionConfig = ConnectionConfig.custom()
+                .setConnectTimeout(timeout(httpClientPoolConfig.getConnectTimeout()))
+                .setValidateAfterInactivity(TimeValue.ofMilliseconds(httpClientPoolConfig.getValidateAfterInactivity().toMillis()))
+                .setTimeToLive(TimeValue.ofMilliseconds(httpClientPoolConfig.getConnectionTimeToLive().toMillis()))
+                .build();
+
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setSSLSocketFactory(SSLConnectionSocketFactoryBuilder.create()
+                        .setSslContext(sslContext)
+                        .setHostnameVerifier(NoopHostnameVerifier.INSTANCE)
+                        .build())
+                .setMaxConnTotal(httpClientPoolConfig.getMaxTotal())
+                .setMaxConnPerRoute(httpClientPoolConfig.getDefaultMaxPerRoute())
+                .build();
+
+        // 已配置的外部服务按其并发上限和连接超时单独设置路由
+        Map<HttpRoute, ConnectionConfig> routeConnectionConfigs = new HashMap<>();
+        resilienceProperties.getBackends().forEach((name, backend) -> {
+            for (String baseUrl : backend.getBaseUrls()) {
+                HttpRoute route = toRoute(baseUrl);
+                if (route == null) {
+                    continue;
+                }
+                connectionManager.setMaxPerRoute(route, backend.getMaxConcurrentCalls());
+                routeConnectionConfigs.put(route, ConnectionConfig.copy(defaultConnectionConfig)
+                        .setConnectTimeout(timeout(backend.getConnectTimeout()))
+                        .build());
 
-        // 创建SSL Socket工厂
-        SSLSocketFactory sslSocketFactory = sslContext.getSocketFactory();
+                Gauge.builder("outbound.http.pool.leased", connectionManager, manager -> manager.getStats(route).getLeased())
+                        .tag("backend", name)
+                        .tag("target", route.getTargetHost().toHostString())
+                        .register(meterRegistry);
+                Gauge.builder("outbound.http.pool.available", connectionManager, manager -> manager.getStats(route).getAvailable())
+                        .tag("backend", name)
+                        .tag("target", route.getTargetHost().toHostString())
+                        .register(meterRegistry);
+                Gauge.builder("outbound.http.pool.pending", connectionManager, manager -> manager.getStats(route).getPending())
+                        .tag("backend", name)
+                        .tag("target", route.getTargetHost().toHostString())
+                        .register(meterRegistry);
+            }
+        });
+        connectionManager.setConnectionConfigResolver(route -> routeConnectionConfigs.getOrDefault(route, defaultConnectionConfig));
+
+        // 连接池整体统计：最大连接数、已借出、空闲、等待中
+        new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, "outbound").bindTo(meterRegistry);
+
+        HttpClientBuilder builder = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(defaultRequestConfig(httpClientPoolConfig))
+                // 后台线程定期关闭过期和空闲过久的连接
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofMilliseconds(httpClientPoolConfig.getMaxIdleTime().toMillis()));
+        if (!httpClientPoolConfig.isCompression()) {
+            builder.disableContentCompression();
+        }
+
+        log.info("外部服务HTTP连接池: 最大连接数{}，默认每路由{}，已配置路由{}个",
+                httpClientPoolConfig.getMaxTotal(), httpClientPoolConfig.getDefaultMaxPerRoute(), routeConnectionConfigs.size());
+        return builder.build();
+    }
+
+    @Bean
+    public RestTemplate restTemplate(CloseableHttpClient outboundHttpClient,
+                                     HttpClientPoolConfig httpClientPoolConfig,
+                                     OutboundResilience outboundResilience,
+                                     ResilienceInterceptor resilienceInterceptor) {
+        RequestConfig defaultRequestConfig = defaultRequestConfig(httpClientPoolConfig);
 
         // 创建自定义的请求工厂
-        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory() {
+        HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(outboundHttpClient) {
             @Override
-            protected void prepareConnection(HttpURLConnection connection, String httpMethod) throws IOException {
-                if (connection instanceof HttpsURLConnection) {
-                    ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
-                    ((HttpsURLConnection) connection).setHostnameVerifier((hostname, session) -> true);
+            protected HttpContext createHttpContext(HttpMethod httpMethod, URI uri) {
+                // 发往已配置外部服务的请求按操作类型设置读取超时
+                OutboundResilience.Route route = outboundResilience.route(uri);
+                if (route == null) {
+                    return null;
                 }
-                super.prepareConnection(connection, httpMethod);
+                HttpClientContext context = HttpClientContext.create();
+                context.setRequestConfig(RequestConfig.copy(defaultRequestConfig)
+                        .setResponseTimeout(timeout(route.getTimeout()))
+                        .build());
+                return context;
+            }
+
+            @Override
+            protected ClassicHttpRequest createHttpUriRequest(HttpMethod httpMethod, URI uri) {
+                // 登记到调用线程的可中止句柄上（如检索对冲中落后的请求），由其他线程直接关闭连接
+                ClassicHttpRequest request = super.createHttpUriRequest(httpMethod, uri);
+                AbortableRequest.bind(request);
+                return request;
             }
         };
 
-        // 设置超时
-        factory.setConnectTimeout(120000);
-        factory.setReadTimeout(120000);
+        RestTemplate restTemplate = new RestTemplate(factory);
+        // 外部服务的并发隔离和熔断
+        restTemplate.getInterceptors().add(resilienceInterceptor);
+        return restTemplate;
+    }
+
+    private static RequestConfig defaultRequestConfig(HttpClientPoolConfig httpClientPoolConfig) {
+        return RequestConfig.custom()
+                .setConnectionRequestTimeout(timeout(httpClientPoolConfig.getConnectionRequestTimeout()))
+                .setResponseTimeout(timeout(httpClientPoolConfig.getReadTimeout()))
+                .build();
+    }
 
-        return new RestTemplate(factory);
+    /**
+     * 服务地址对应的连接池路由，地址无效（如未配置的占位地址）时返回null
+     */
+    private static HttpRoute toRoute(String baseUrl) {
+        if (baseUrl == null || baseUrl.isBlank()) {
+            return null;
+        }
+        try {
+            URI uri = URI.create(baseUrl.trim());
+            if (uri.getScheme() == null || uri.getHost() == null) {
+                return null;
+            }
+            boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+            int port = uri.getPort() > 0 ? uri.getPort() : (secure ? 443 : 80);
+            return new HttpRoute(new HttpHost(uri.getScheme(), uri.getHost(), port), null, secure);
+        } catch (IllegalArgumentException e) {
+            log.warn("无效的服务地址，跳过连接池路由配置: {}", baseUrl);
+            return null;
+        }
     }
 
-    private ClientHttpRequestFactory clientHttpRequestFactory() {
-        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
-        // 设置连接超时时间（毫秒）
-        factory.setConnectTimeout(120000);
-        // 设置读取超时时间（毫秒）
-        factory.setReadTimeout(120000);
-        return factory;
+    private static Timeout timeout(Duration duration) {
+        return Timeout.ofMilliseconds(duration.toMillis());
     }
-} 
\ No newline at end of file
+}
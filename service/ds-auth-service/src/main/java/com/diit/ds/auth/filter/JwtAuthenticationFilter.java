@@ -239,7 +239,9 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
                 path.contains("/doc.html") ||
                 path.contains("/webjars/") ||
                 path.contains("/favicon.ico") ||
-                path.contains("/actuator")) {
+                path.contains("/actuator") ||
+                // 预览文件，nginx回源请求不带令牌
+                path.startsWith("/preview/")) {
             return true;
         }
 
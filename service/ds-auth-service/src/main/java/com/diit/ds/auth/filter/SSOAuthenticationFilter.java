@@ -121,7 +121,9 @@ public class SSOAuthenticationFilter extends OncePerRequestFilter {
                 path.contains("/doc.html") ||
                 path.contains("/webjars/") ||
                 path.contains("/favicon.ico") ||
-                path.contains("/actuator")) {
+                path.contains("/actuator") ||
+                // 预览静态文件
+                path.startsWith("/preview/")) {
             return true;
         }
 
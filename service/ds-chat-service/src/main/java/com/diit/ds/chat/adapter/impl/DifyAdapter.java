@@ -1,17 +1,31 @@
 package com.diit.ds.chat.adapter.impl;
 
 import com.diit.ds.chat.adapter.LLMAdapter;
+import com.diit.ds.chat.cache.AgentProfileCache;
+import com.diit.ds.chat.cache.ChatStreamReplayCache;
+import com.diit.ds.chat.cache.DifyAppResponseCache;
+import com.diit.ds.chat.cache.MessageWorkflowRunStore;
 import com.diit.ds.chat.config.DifyConfig;
+import com.diit.ds.chat.domain.dto.AgentIconDTO;
+import com.diit.ds.chat.domain.dto.AppResponseDTO;
 import com.diit.ds.common.context.UserContext;
-import com.diit.ds.domain.mapper.AgentsMapper;
-import com.diit.ds.domain.pojo.entity.Agents;
+import com.diit.ds.common.exception.BackendUnavailableException;
+import com.diit.ds.common.resilience.OutboundResilience;
 import com.diit.ds.chat.service.MessagesService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.multipart.MultipartFile;
@@ -20,14 +34,16 @@ import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.util.UriComponentsBuilder;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
 
 /**
  * Dify适配器实现
@@ -36,20 +52,50 @@ import java.util.concurrent.ExecutorService;
 @Slf4j
 @Service
 @RequiredArgsConstructor
-public class DifyAdapter implements LLMAdapter {
+public class DifyAdapter implements LLMAdapter, InitializingBean, DisposableBean {
+
+    private static final String DIFY_BACKEND = "dify";
+
+    // 智能体图标接口地址，见DifyChatAPIController
+    private static final String ICON_PATH = "/v1/icon";
 
     private final ObjectMapper objectMapper;
     private final RestTemplate restTemplate;
-    private final ExecutorService executorService;
+    private final HttpClient difyStreamHttpClient;
     private final DifyConfig difyConfig;
     private final MessagesService messagesService;
     @Value("${dify.api.base-url:http://192.168.11.205}")
     private String difyBaseUrl;
 //    private final AgentsService agentsService;
-    private final AgentsMapper agentsMapper;
+    private final AgentProfileCache agentProfileCache;
+    private final DifyAppResponseCache difyAppResponseCache;
+    private final OutboundResilience outboundResilience;
+    private final ChatStreamReplayCache chatStreamReplayCache;
+    private final MessageWorkflowRunStore messageWorkflowRunStore;
     @Value("${dify.api.chat-agent-token}")
     private String chatAgentToken;
 
+    // 原始字节转发时合并token事件的定时写出
+    private ScheduledExecutorService streamFlushScheduler;
+
+    @Override
+    public void afterPropertiesSet() {
+        DifyConfig.Stream stream = difyConfig.getStream();
+        if (stream.isRawPassthrough() && !stream.getCoalesceWindow().isZero()) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("dify-stream-flush-");
+            threadFactory.setDaemon(true);
+            streamFlushScheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+            log.info("Dify流式响应按原始字节转发，token事件合并窗口: {}ms", stream.getCoalesceWindow().toMillis());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (streamFlushScheduler != null) {
+            streamFlushScheduler.shutdownNow();
+        }
+    }
+
     @Override
     public Map<String, Object> processBlockingResponse(String agentId, Map<String, Object> requestBody) {
         String url = difyBaseUrl + "/v1/chat-messages";
@@ -75,72 +121,65 @@ public class DifyAdapter implements LLMAdapter {
 
     @Override
     public void processStreamingResponse(String agentId, Map<String, Object> requestBody, SseEmitter emitter) {
-        executorService.execute(() -> {
-            HttpURLConnection connection = null;
-            try {
-                // 准备连接
-                URL url = new URL(difyBaseUrl + "/v1/chat-messages");
-                HttpHeaders headers = createHeaders(agentId);
-                connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("POST");
-                connection.setRequestProperty("Content-Type", headers.getContentType().toString());
-                connection.setRequestProperty("Authorization", headers.getFirst("Authorization"));
-                connection.setDoOutput(true);
-                connection.setReadTimeout(0); // 无限超时
-
-                // 写入请求体
-                String requestBodyJson = objectMapper.writeValueAsString(requestBody);
-                connection.getOutputStream().write(requestBodyJson.getBytes());
-
-                // 读取响应
-                int responseCode = connection.getResponseCode();
-                if (responseCode == HttpURLConnection.HTTP_OK) {
-                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
-                        String line;
-                        while ((line = reader.readLine()) != null) {
-                            if (line.startsWith("data: ")) {
-                                String data = line.substring(6);
-                                // 直接将数据发送给客户端
-                                emitter.send(SseEmitter.event().data(data, MediaType.APPLICATION_JSON));
-                            }
-                        }
-                    }
-                } else {
-                    // 处理错误
-                    log.error("Response code: {}, message: {}", responseCode, connection.getResponseMessage());
-                    Map<String, Object> errorResponse = Map.of(
-                            "error", Map.of(
-                                    "message", "Error from Dify API: " + responseCode,
-                                    "status_code", responseCode
-                            )
-                    );
-                    emitter.send(SseEmitter.event().data(objectMapper.writeValueAsString(errorResponse), MediaType.APPLICATION_JSON));
-                }
+        OutboundResilience.Permit permit;
+        try {
+            // 流式对话同样受Dify的并发隔离和熔断保护，熔断中或并发已满时直接返回错误
+            permit = outboundResilience.acquire(DIFY_BACKEND, "chat-stream");
+        } catch (BackendUnavailableException e) {
+            newStreamRelay(emitter, OutboundResilience.Permit.NOOP, null, null).fail(e);
+            return;
+        }
 
-                // 完成
-                emitter.complete();
+        // 客户端断开时按流中的task_id停止生成，Dify要求与发起对话的user一致
+        Object user = requestBody.get("user");
+        DifyStreamRelay relay = newStreamRelay(emitter, permit, streamUser(user == null ? null : user.toString()),
+                taskId -> stopQuietly(agentId, taskId, user == null ? null : user.toString()));
+        try {
+            // 准备请求
+            HttpHeaders headers = createHeaders(agentId);
+            HttpRequest request = HttpRequest.newBuilder(URI.create(difyBaseUrl + "/v1/chat-messages"))
+                    .timeout(difyConfig.getStream().getResponseTimeout())
+                    .header("Content-Type", headers.getContentType().toString())
+                    .header("Authorization", headers.getFirst("Authorization"))
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(requestBody)))
+                    .build();
+
+            // 异步发送，响应数据到达时由relay转发，不占用线程等待
+            difyStreamHttpClient.sendAsync(request, relay.bodyHandler())
+                    .whenComplete(relay::onResponse);
+        } catch (Exception e) {
+            relay.fail(e);
+        }
+    }
 
-            } catch (Exception e) {
-                try {
-                    log.error("Error processing streaming response", e);
-                    Map<String, Object> errorResponse = Map.of(
-                            "error", Map.of(
-                                    "message", "Error processing streaming response: " + e.getMessage(),
-                                    "status_code", 500
-                            )
-                    );
-                    emitter.send(SseEmitter.event().data(objectMapper.writeValueAsString(errorResponse), MediaType.APPLICATION_JSON));
-                    emitter.completeWithError(e);
-                } catch (IOException ex) {
-                    // 忽略发送错误的异常
-                    log.error("Error sending error response", ex);
-                }
-            } finally {
-                if (connection != null) {
-                    connection.disconnect();
-                }
-            }
-        });
+    private DifyStreamRelay newStreamRelay(SseEmitter emitter, OutboundResilience.Permit permit, String owner,
+                                           Consumer<String> upstreamStopper) {
+        return new DifyStreamRelay(emitter, permit, objectMapper, difyConfig.getStream(), streamFlushScheduler,
+                chatStreamReplayCache, owner, upstreamStopper, messageWorkflowRunStore::record);
+    }
+
+    /**
+     * 流式对话所属用户：优先使用登录用户，未登录时使用请求中的user
+     */
+    private static String streamUser(String user) {
+        String userId = UserContext.getUserId();
+        return userId != null && !userId.isEmpty() ? userId : user;
+    }
+
+    /**
+     * 客户端断开后停止Dify生成
+     */
+    private void stopQuietly(String agentId, String taskId, String user) {
+        Map<String, Object> body = new HashMap<>();
+        if (user != null) {
+            body.put("user", user);
+        }
+        stopGenerating(agentId, taskId, body);
+    }
+
+    @Override
+    public boolean resumeStreamingResponse(String taskId, Long lastEventId, String user, SseEmitter emitter) {
+        return chatStreamReplayCache.resume(taskId, lastEventId, streamUser(user), emitter);
     }
 
     @Override
@@ -171,30 +210,6 @@ public class DifyAdapter implements LLMAdapter {
         }
     }
 
-    @Override
-    public Map<String, Object> submitMessageFeedback(String agentId, String messageId, Map<String, Object> requestBody) {
-        String url = difyBaseUrl + "/v1/messages/" + messageId + "/feedbacks";
-
-        // 发送请求
-        HttpHeaders headers = createHeaders(agentId);
-        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
-
-        try {
-            ResponseEntity<Map> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.POST,
-                    entity,
-                    Map.class
-            );
-
-            return response.getBody();
-
-        } catch (Exception e) {
-            log.error("提交消息反馈失败", e);
-            throw new RuntimeException("提交消息反馈失败: " + e.getMessage());
-        }
-    }
-
     @Override
     public Map<String, Object> getMessageSuggestions(String agentId, String messageId, String user) {
         String url = difyBaseUrl + "/v1/messages/" + messageId + "/suggested?user=" + user;
@@ -219,116 +234,42 @@ public class DifyAdapter implements LLMAdapter {
     }
 
     @Override
-    public Map<String, Object> getMessages(String agentId, String user, String conversationId, Integer limit) {
-        String url = difyBaseUrl + "/v1/messages";
-
-        // 构建请求参数
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(url);
-        builder.queryParam("user", user);
-        if (conversationId != null && !conversationId.isEmpty()) {
-            builder.queryParam("conversation_id", conversationId);
-        }
-        if (limit != null) {
-            builder.queryParam("limit", limit);
-        }
-
-        // 发送请求
-        HttpHeaders headers = createHeaders(agentId);
-        HttpEntity<String> entity = new HttpEntity<>(headers);
-
+    public void proxyMessages(String agentId, String user, String conversationId, Integer limit,
+                              HttpServletResponse response) {
+        HttpEntity<Object> entity = new HttpEntity<>(createHeaders(agentId));
+        DifyMessageList messages;
         try {
-            ResponseEntity<Map> response = restTemplate.exchange(
-                    builder.toUriString(),
-                    HttpMethod.GET,
-                    entity,
-                    Map.class
-            );
-
-            // 处理消息排序，确保新消息排在后，旧的消息排在前面
-            Map<String, Object> responseBody = response.getBody();
-            if (responseBody != null && responseBody.containsKey("data")) {
-                List<Map<String, Object>> messages = (List<Map<String, Object>>) responseBody.get("data");
-                if (messages != null && !messages.isEmpty()) {
-                    // 按created_at字段降序排序（新消息在前）
-                    messages.sort((m1, m2) -> {
-                        Long time1 = m1.containsKey("created_at") ? Long.valueOf(m1.get("created_at").toString()) : 0L;
-                        Long time2 = m2.containsKey("created_at") ? Long.valueOf(m2.get("created_at").toString()) : 0L;
-                        return time1.compareTo(time2); // 降序排列
-                    });
-                    // 过滤掉answer为空字符串的消息和error有值的消息
-                    List<Map<String, Object>> filteredMessages = messages.stream()
-                            .filter(message -> {
-                                Object answer = message.get("answer");
-                                Object error = message.get("error");
-                                return answer != null && !answer.toString().isEmpty() && (error == null || error.toString().isEmpty());
-                            })
-                            .collect(java.util.stream.Collectors.toList());
-                    responseBody.put("data", filteredMessages);
-
-                    try {
-                        // 收集所有消息ID，以便在数据库中查询对应的workflowRunId
-                        if (!filteredMessages.isEmpty()) {
-                            List<String> messageIds = filteredMessages.stream()
-                                    .map(message -> message.get("id").toString())
-                                    .collect(java.util.stream.Collectors.toList());
-
-                            // 查询消息对应的workflowRunId
-                            Map<String, Object> workflowRunIds = messagesService.getWorkflowRunIdsByMessageIds(messageIds);
-
-                            // 为每条消息添加work_flow_run_id字段
-                            for (Map<String, Object> message : filteredMessages) {
-                                String messageId = message.get("id").toString();
-                                if (workflowRunIds.containsKey(messageId)) {
-                                    message.put("work_flow_run_id", workflowRunIds.get(messageId));
-                                } else {
-                                    message.put("work_flow_run_id", null);
-                                }
-                            }
+            // 流式读取：只解析排序和过滤需要的字段，其余内容保存为token序列
+            messages = restTemplate.execute(messagesUrl(user, conversationId, limit), HttpMethod.GET,
+                    restTemplate.httpEntityCallback(entity), difyResponse -> {
+                        try (JsonParser parser = objectMapper.createParser(difyResponse.getBody())) {
+                            return DifyMessageList.parse(parser);
                         }
-                    } catch (Exception e) {
-                        // 如果获取workflowRunId失败，记录日志但继续处理
-                        log.error("获取workflowRunId失败，继续返回原始消息", e);
-                        // 为每条消息添加空的work_flow_run_id字段
-                        for (Map<String, Object> message : filteredMessages) {
-                            message.put("work_flow_run_id", null);
-                        }
-                    }
-                }
-            }
-
-            return responseBody;
+                    });
         } catch (Exception e) {
             log.error("获取消息列表失败", e);
             throw new RuntimeException("获取消息列表失败: " + e.getMessage());
         }
-    }
 
-    @Override
-    public Map<String, Object> getConversations(String agentId, String user, String lastId, Integer limit) {
-        String url = difyBaseUrl + "/v1/conversations";
+        Map<String, Object> workflowRunIds = resolveWorkflowRunIds(messages.messageIds());
 
-        // 构建请求参数
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(url);
-        if (user != null && !user.isEmpty()) {
-            builder.queryParam("user", user);
-        } else {
-            // 根据jwt获取userId，防止报错
-            builder.queryParam("user", UserContext.getUserId());
-        }
-        if (lastId != null && !lastId.isEmpty()) {
-            builder.queryParam("last_id", lastId);
-        }
-        if (limit != null) {
-            builder.queryParam("limit", limit);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        try (JsonGenerator generator = objectMapper.createGenerator(response.getOutputStream())) {
+            messages.writeTo(generator, workflowRunIds);
+        } catch (IOException e) {
+            throw new RuntimeException("写出消息列表失败: " + e.getMessage());
         }
+    }
 
+    @Override
+    public Map<String, Object> getConversations(String agentId, String user, String lastId, Integer limit) {
         // 发送请求
         HttpHeaders headers = createHeaders(agentId);
         HttpEntity<String> entity = new HttpEntity<>(headers);
 
         try {
             ResponseEntity<Map> response = restTemplate.exchange(
-                    builder.toUriString(),
+                    conversationsUrl(user, lastId, limit),
                     HttpMethod.GET,
                     entity,
                     Map.class
@@ -374,49 +315,35 @@ public class DifyAdapter implements LLMAdapter {
     }
 
     @Override
-    public Map<String, Object> deleteConversation(String agentId, String conversationId, Map<String, Object> requestBody) {
-        String url = difyBaseUrl + "/v1/conversations/" + conversationId;
-
-        // 发送请求
-        HttpHeaders headers = createHeaders(agentId);
-        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
-
-        try {
-            ResponseEntity<Map> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.DELETE,
-                    entity,
-                    Map.class
-            );
-
-            return response.getBody();
-        } catch (Exception e) {
-            log.error("删除对话失败", e);
-            throw new RuntimeException("删除对话失败: " + e.getMessage());
+    public void proxyConversations(String agentId, String user, String lastId, Integer limit, String keyword,
+                                   HttpServletResponse response) {
+        if (keyword != null && !keyword.isEmpty()) {
+            // 按名称筛选需要修改响应内容，不能直接转发
+            writeJson(response, getConversations(agentId, user, lastId, limit, keyword));
+            return;
         }
+        passthrough(conversationsUrl(user, lastId, limit), HttpMethod.GET, agentId, null, response, "获取对话列表失败");
     }
 
     @Override
-    public Map<String, Object> renameConversation(String agentId, String conversationId, Map<String, Object> requestBody) {
-        String url = difyBaseUrl + "/v1/conversations/" + conversationId + "/name";
-
-        // 发送请求
-        HttpHeaders headers = createHeaders(agentId);
-        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
+    public void proxyDeleteConversation(String agentId, String conversationId, Map<String, Object> requestBody,
+                                        HttpServletResponse response) {
+        String url = difyBaseUrl + "/v1/conversations/" + conversationId;
+        passthrough(url, HttpMethod.DELETE, agentId, requestBody, response, "删除对话失败");
+    }
 
-        try {
-            ResponseEntity<Map> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.POST,
-                    entity,
-                    Map.class
-            );
+    @Override
+    public void proxyRenameConversation(String agentId, String conversationId, Map<String, Object> requestBody,
+                                        HttpServletResponse response) {
+        String url = difyBaseUrl + "/v1/conversations/" + conversationId + "/name";
+        passthrough(url, HttpMethod.POST, agentId, requestBody, response, "重命名对话失败");
+    }
 
-            return response.getBody();
-        } catch (Exception e) {
-            log.error("重命名对话失败", e);
-            throw new RuntimeException("重命名对话失败: " + e.getMessage());
-        }
+    @Override
+    public void proxyMessageFeedback(String agentId, String messageId, Map<String, Object> requestBody,
+                                     HttpServletResponse response) {
+        String url = difyBaseUrl + "/v1/messages/" + messageId + "/feedbacks";
+        passthrough(url, HttpMethod.POST, agentId, requestBody, response, "提交消息反馈失败");
     }
 
     @Override
@@ -479,73 +406,101 @@ public class DifyAdapter implements LLMAdapter {
     }
 
     @Override
-    public Map<String, Object> getAppInfo(String agentId) {
-        String url = difyBaseUrl + "/v1/info";
+    public AppResponseDTO getAppInfo(String agentId) {
+        return difyAppResponseCache.get(DifyAppResponseCache.INFO, agentId, () -> {
+            String url = difyBaseUrl + "/v1/info";
 
-        // 发送请求
-        HttpHeaders headers = createHeaders(agentId);
-        HttpEntity<String> entity = new HttpEntity<>(headers);
+            // 发送请求
+            HttpHeaders headers = createHeaders(agentId);
+            HttpEntity<String> entity = new HttpEntity<>(headers);
 
-        try {
-            ResponseEntity<Map> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.GET,
-                    entity,
-                    Map.class
-            );
+            try {
+                // 按原始字节读取，不经过Jackson反序列化
+                ResponseEntity<byte[]> response = restTemplate.exchange(
+                        url,
+                        HttpMethod.GET,
+                        entity,
+                        byte[].class
+                );
+
+                return response.getBody();
+            } catch (Exception e) {
+                log.error("获取应用信息失败", e);
+                throw new RuntimeException("获取应用信息失败: " + e.getMessage());
+            }
+        });
+    }
 
-            return response.getBody();
-        } catch (Exception e) {
-            log.error("获取应用信息失败", e);
-            throw new RuntimeException("获取应用信息失败: " + e.getMessage());
-        }
+    @Override
+    public AppResponseDTO getParameters(String agentId) {
+        return difyAppResponseCache.get(DifyAppResponseCache.PARAMETERS, agentId, () -> {
+            String url = difyBaseUrl + "/v1/parameters";
+
+            // 发送请求
+            HttpHeaders headers = createHeaders(agentId);
+            HttpEntity<String> entity = new HttpEntity<>(headers);
+
+            try {
+                // 按原始字节读取，不经过Jackson反序列化
+                ResponseEntity<byte[]> response = restTemplate.exchange(
+                        url,
+                        HttpMethod.GET,
+                        entity,
+                        byte[].class
+                );
+
+                return response.getBody();
+            } catch (Exception e) {
+                log.error("获取应用参数信息失败", e);
+                throw new RuntimeException("获取应用参数信息失败: " + e.getMessage());
+            }
+        });
     }
 
     @Override
-    public Map<String, Object> getParameters(String agentId) {
-        String url = difyBaseUrl + "/v1/parameters";
+    public AppResponseDTO getMeta(String agentId) {
+        return difyAppResponseCache.get(DifyAppResponseCache.META, agentId, () -> {
+            String url = difyBaseUrl + "/v1/meta";
 
-        // 发送请求
-        HttpHeaders headers = createHeaders(agentId);
-        HttpEntity<String> entity = new HttpEntity<>(headers);
+            HttpHeaders headers = createHeaders(agentId);
+            HttpEntity<String> entity = new HttpEntity<>(headers);
 
-        try {
             ResponseEntity<Map> response = restTemplate.exchange(
                     url,
                     HttpMethod.GET,
                     entity,
                     Map.class
             );
+            Map<String, Object> body = response.getBody() != null ? new HashMap<>(response.getBody()) : new HashMap<>();
 
-            return response.getBody();
-        } catch (Exception e) {
-            log.error("获取应用参数信息失败", e);
-            throw new RuntimeException("获取应用参数信息失败: " + e.getMessage());
-        }
+            // 图片图标不再内嵌在元数据中，返回单独可缓存的图标地址；emoji等非图片图标直接返回
+            AgentProfileCache.AgentProfile profile = agentProfileCache.get(agentId);
+            if (profile != null && profile.getIcon() != null && !profile.getIcon().isBlank() && !profile.hasInlineImage()) {
+                body.put("icon", profile.getIcon());
+            } else {
+                body.put("icon", profile != null ? ICON_PATH + "?agentId=" + profile.getAgentId() : ICON_PATH);
+            }
+            // 需要替换图标，缓存前序列化一次
+            try {
+                return objectMapper.writeValueAsBytes(body);
+            } catch (JsonProcessingException e) {
+                throw new RuntimeException("序列化应用元数据失败: " + e.getMessage());
+            }
+        });
     }
 
     @Override
-    public Map<String, Object> getMeta(String agentId) {
-        String url = difyBaseUrl + "/v1/meta";
-
-        HttpHeaders headers = createHeaders(agentId);
-        HttpEntity<String> entity = new HttpEntity<>(headers);
+    public AgentIconDTO getIcon(String agentId) {
+        return agentProfileCache.getIcon(agentId);
+    }
 
-        ResponseEntity<Map> response = restTemplate.exchange(
-                url,
-                HttpMethod.GET,
-                entity,
-                Map.class
-        );
-        Map body = response.getBody();
-        if (agentId != null) {
-            String icon = agentsMapper.selectById(agentId).getIcon();
-            body.put("icon", icon);
+    @Override
+    public void evictAppCache(String agentId) {
+        if (agentId == null) {
+            difyAppResponseCache.invalidateAll();
         } else {
-            body.put("icon", "data:image/png;base64,iVBORw0KGgoAAAANSUhEUgAAAFAAAABQCAYAAACOEfKtAAAAAXNSR0IArs4c6QAAE2BJREFUeF7tnHmQXNV1h8+57/XMaKTRwo4CNimQWQxCC9IgCdBgk3JcrmwVY+IqF0klFdslzJIQx0lIiBK5nD9SiZM4DoFK2SZVTiBygl3GMlAgyUgy2AJjLUgCBITFRgEJwSCNNNP97knOOfe8d9+b7tEsPdLERaukmX7L7b5f/856bwvh3ceECOCE7n73ZngX4ARFMOUBzt9H0w8cgE8gwhJEmO4cPDGjG7769Nn45gTn3pbbpzTAM7fTYodwLyCcy7aC/G4RwCXQDwh/3nsefGktYtYWEuMcZMoCPO85mjkwADsI4D0CzgE4pwDRhb8I29MarHr+vbhlnPOf8G1TFuCZT9EfE8AXBFaAZirkYwYSHJBz8LW0Cz6390x8Y8JExjjAlAV4+o/omwjwKyV4QXkVFSrMBA46B39y/dlw12pEP0YO47586gJ8krYhwvwcVvB/pj6XBBWaeZt/TGErJLDqhbn4xLipjOHGqQvwCdoGCPMFGLMq/J78HqtQAkvZrD0mcOf0brhtx2w8OAYeY7506gLcGgAGhZkvLJlvBNeOC8gA0zl4wzn4w2fPgLsRkcZMZxQ3TG2AEBQYAklVdXGAsUjdzGeigy0JwqpnTsfto2AypkumLMDTfkDbwMH8PPerBJA8CkdpTcmU48jN9yaQoYMvOYDbnzkV3xkTpREunroAHy8ANvN5uUlH+aEBpACv5BeLY69RArc+dxL+ezsgTmmAhDC/GYRhZlrxkxZwJPhwtLafoZrh887BeqrBDc/OxD0TATm1AQYfmAOLInGeVCdFiZenOCGQmPk3i+Chsqmjg7+ZPgvWPIk4MB6QUxbgqY8VUdjAVCNwbtqRvzPFhpq5qFgi9VUTcUR4GRO4ZfdMvG+sEEcF8Pxfpp7snaH3NMifCpgSQAMAUi6xqCG/h0cKQNRAzFKCVK861iO/Ji1fSZ/t/Ap2oTYRqjlgNSpXA0acE9r9lXFYgdUSkTw8WHNww87Z+Pyx3redHxHguSvrVxNlt3qADwOQk0QqZPxEACR/EEhSLALP54iAmCz/7vmYl2PaSiE+pOeIj/OAYQx+4vl3fg2C9OZZgGemedLc1BfGCXWTejn3hVXARVcnT9IFKL/ljLLsIH357HPd5zYiHj0WyJYA5608elPm8YuAARxPFZkFw1CQCjH8Ra+TZyAMELzAUhvy4VqSn3IHgw7vzlMGIDwDVAJIb50DODfV9lUrUE0qkmG5ocFrUcnE48u7DURoEPYl3XDNrh58eiSITQHOu2rw857otjDVEMZ4jgTIcGzyKPMWxTAMz8/kPMNWugxFFScCk6vkaoMvSgwqlAv0eXLLSeDOigAarIqaYp/HEbcUOKpm2ypamyJdMIpgaOShv9YBV+6c0ToBHwbwfVfUryDwm8pqK0NT9alZMg4Gh4BiwgIsrBTocUUmhFFNWK2b1ahKZHMW1XpVKv/jfm8OJAFgDiUAalbWNWs6lNpeVSW3qqf15dVw1NOse+Yk/EgrFQ4DeP6V9fu8979amGkBiieS+z751BSs9o7YdCNIDIv9Y1CcCI3fNF/PT3J5q6krOD7OIDNwv38SuLkSqIrmQVDQMH+o7ayiwVAJHK2qlmEfhL1WcEsCh6eAcOqemXigGcQSwGuvpWT7a/VDBNRln4K5eYFlXk6Upg9WGatHg4Garv4B8MxDQo/6PladPYhVJzwJMLgEcQ3BseIts8UHxoGAwVVTl6rKSjljpcwrBZVm54Ip5+oLSkwR5j09C/ceE+AFfXQODQ29KCZqV5ufM0QGMpixwBPTDODy4/rxCTSDSmzofC0vY+g5ASi/69IGm7HcefMc9YFRKytWUu77onTE4A2DGoGX+5pUJqVyMcw/mDBhOkoFLuijc44O1XOAeZwMAxbPVY2mODU8U2MAFyKt6MwiWzB3DSLB8D370UzAEqkflI/v5jmAP6cm3DQXHEFBcd5o+V51jGpnp5lb4JkM7sr6X1yezhqVD1z8SaoN7Gy8TeCnaQaiM5cJR4HD4FkQMf+XmW7Jg0fHuhL/KH6Q4cg4FFLAYNqc+9kxdYTqD2+eLT4wTnirKmmltCr0Kqxh6yxRQMmVDQDZgQwO/O3Rhw7+04wPjQogX/T+5Y37PfiPxDldCWJk2pa6SARlUTk1SQOuaYsGFztuwULvKZJpzxFYLg9+8KagwCh9EZhmjpUutZ0bljfG9zdRbTXHFNgJQP2lIdj/d4PQeAN+Z+A7M78yaoAXX1Hv8x42WMJcqE0VqT5Nh1NQCFnwc3ycf2cFBI+m4CQnDNGaf/IFPterBg5RnqpPAsyNZYCVTvMxa9xmIOPlgVLaE7fEBjN45+v90L8lAfS4f5bree9Pv9260dA0kb5o2dC9APCxPPKaDxQYweFZBSI5nQdwWtLFwURygACQYXuvcC0Rl/sEGB9n09akR1R44xwA84FxoKhUJc3M047l6rIEukXNbNcd+d470H+fh6xfsThwnz60rufOVupTb9/ksaSPzjgylO325GdbNaYhQ7PLWJWaqmgA0YCh0Dh9ycTGSU07+EfJDS15jithhidZtoKkm+YAzU2ljONh4lW4ao07LNC0qFpKgSRaT/E/GYT+fx2Aoy9wph6iNOK2zy7pWbR69chLpC1r4UuWDX3KA/5zHkAC6BLQYNKa+wWwbJ3kRWkMK2R7Rd3MqpNrFJZAi0yYQ01mALmZMMZcLjbdkQKQwGx4GPjG2zCwOQXOoswl8U8HbuWhdT2PjqS+lgpUX054yYrGZk+0XP1deAQFaopuqQz7PDVPq40ZogYPvc/isfhMlm3o5pjvY6AyokYeaHxmdm7Cw/qBVahNKpFjpS31Hx6Cgfsa4PuTvLoyl4UI9x5aN+s3jgVvRIB88tIV9H7vs6c8UK0aiU2JoiA2YYYVui7iB8Xa43LOauLCnHnMjNUq5V14BVYfecjYB4ZuTDOTHbHOjZoGMskoetPrQ3DknsNQf7YWpWahxSaVFA501JIL3vxW9ysTBsgDXHx5/fMEdFvu26wGDvrTVEZLNi3VuKlQpDLiz3K/GVKUUMLp9RY4ggsI6mQFsg8stembBYEKIFFe3MKy50QweH8/NDY5oDp/tGWTNSsjxNsPfbdnzWjgHVOBfEFfH3XtH8x2ANB5aorBJi1YIIU6IrStAhKGquYc0hJrRAQfqNVIqJlDV0aAyvAe6jcowKqCqgtKpSjcBKb4250D0GBzPZjkwSwvV6MMAx281DOj58JX1+KRtgHkgeYvq3+QCB6Onaz5RDE9Vp8Ehrg3qJGYean/s7okpDHW0baSLiTQBnaIAYaOdLMmwLF8nCj3rQY0vnEYaE+aK076mYbRfHRIzcjBR99e1/Ofo4U3KgXaYPOXNe72RNerJKJujOV5ksoEMww+0MCpmYZQYr4u9ATljlCFFN0YgsEbtBsjaUUlDzxmP5AIsvWHATYCwJDacMnz5oFQ56HCcBveenDGB8YCb0wAF/fRKfWjfg+BP9nUl5dorD72ewyOE2pLVQycpCuhSy3dmKJbze9detTBjGWiXgFCtCaSQ2vWmo98I+09CvitOuB+zem0vavplCTx9iHL7EN97jADBwsPrpuxY9IA8sALLm/8lif6qgaF8Dc3YV0LkfQlT5pDrzC09nVBSeGpL/UC1tqu5hMF4G/2gD+vo2U/cFiH5nAG9O0BSHeynxsh7crLULMkBuu+fODB6Z8ZK7wxKdAGX9DbWJ8BXS2fblAVOpQ8UBJqqXmtB6jpjYIJqYpcEzUXDHZoY0laBAD1lV2QXTO91MoyaKVkmZX12BGorSeAwdCHN4ABVl4hxZWSmTHCm9NwxrxXHxzfpvWWlUirT2PpFfS+wYbfTuQ7Jfez+ph9oAUGMZ2i4rDuNpu26TOvXWQNya71mkjzuF0AR1fNBpijptjUhF8Zgo77h8D9j+7fsNw0T0miYKHZgK0oWo3OJTyuev2h6XeMR33jUiDftLA3+7OM/F+yd5GFI2eLS5bzhfBhi07WrQ5NB2kiiHoZmC4HCNgomHD49qckMPTbswBmJyVTxkEPtQeOQNeOpFgmiAJb3K+MweVZhCX6DravnDV90dq149/pP2YFMsBrr6WOva/4H2eeLhSzNd8nBXroyIgiQ9fZal9bjbMk3BaRJIVRbZp5yzhs1tyUWNAF/qwUsIaQvJzBtOcTcJkrJ8NWM5p/lpkFb5znrEUQ4XQGU3f1vgemcawe92NcAPnVFvfSFXWfPQpOdJS3uaQ3yCVaMOE4fdBzRZda1zi5nxiWPw2kdPytM8NqJcAkga7uaeASTW3yQFFZvzEzLa1h2yyjfiYirt33cPfHxk0u3DhugHz//N7sLiD6XXHSoe0UmloaSESFRblm9a4pQyJ2iMi6JhKUKABDVokAnbVOqHV25uu1mn7k+sp9n350pjqdoVwXNYAl10c8Ap144Wvrpr10QgFecgnNwe5sNyCdznDyxmrYjcCKs5RGJxeWj4ISix0Oaq6aHqov5N/SpAa1Wie4RM1VHvECVwvTtGAS76Aw/yeJOdJf/PTh6asnCm/cQSR+4flLGx8HoH/jTzlvZYU6V5sKIck2/xb9lBCUrxfrgjsnvXxTR60D0rRWiayFumJIw0w6X3awjU9FhCaAl93J0y4YS707EugJmbANvKjXPzDksw+pGWs+aC0ta+nnTQj2j6y2kDOa0Vn+15Gm0JF0hvIq7ISoBoSgxxxi1WxDysKBotjypOpNErju5Ye7/6Md6muLAnmQpUvp5wfB7/RI3Zbp2eTkuW15s4Q6qlWkuQoACSJ0pp1cFeT5WgGo8Ge2pCDgo6XWoj7XuluTo6huV6l875UN0/raBa9tAHmghb31P8oI/0rWRliJ5v9kFU59Yeg5h2ARNiWhgxomkLoiug7zdU1hmXcNcEsrhTo1VXkIK85lKbjFL27o2DYlAfb1UXrwaOMpT3CxlG3WNJBOdVHihUpNgwQ66MA07CdUIM0KfkEQ7b8Zpr682xMWtXKFFwpEh3e8tKFrVTvhtVWBPNglS+vLAHAzoXe578sVwL5PczvuJ3RADRx3bqqRtfTcPGTUOSltM7HdDuF8CB5Fi8o2ROHBaWnnvD2PNN9hNRGobQki8RtYuDS7ow7+02a0tl/Q9hCmbK78HVUr7PNOnW4LLurVYp+edX+sx6I7YC3rs35e5CfN5MM16JIbX9zY8Y8TAdXq3rYDXLGCevqHGs8C0hk8Sa4yeHHXeYIaJIUpyitHCoqcfr77oZTntTBPUV0MvzwmIOxcfFrngonUuyOBbztAfrFFl9N1dV+/J1RqkPK2tii6aoFf9OPUUMsRM+/ylM6Fm/JWVNFVyRNlqz5MfbXkg8+vr62fDPW13QfGb/LSJfXvOoBfdGauudpi87N9NuU15tzzVXeHhRcwWCWl5q4gMmWH//X8o52/PlnwJhVgby+d5T3t8kQ9tl0i91uRDyvaTYXp6R7rvGMY1iltN0MEqFTWFaqWMRGPpq524Z6N+N//LwHym16yhG4Cor+3ijgOHJrrVbYNmz+zyldAFBvay4FDuRYbOOMPQNzBmuc2dd4+mfAmVYE8+OrV5L5zPz3OLBVeuQ0lphqgFevNzbssRbc56vFFJVyp2wz0as+cjvOfHGFbWrvATkoQid/ckiW0AIm2EpCUGqaYIgkpK6fcJBimqhx40XWumDR/RSJJPr57U3pPuyAd9yhcfcHexfTXBPQH2mgIZ22nQoio8YJ3dW3D6t/mLa04okuvb9PuLbWrjge8STdhm8QvLabu14meJoRzbJ+MnRveUYlUZ1WMdZ2j3LHkT4tvT3lXq12261F86mcKIE/m8svow55oXV7XRgEj7hjbJqbiWHVHbOFL4x0Swcfetev7HZ86XvCOmwJtQpcvonsI6ToNGKHhVN2rUsn14p62Qm3pF9/q6kznPbkR9//MAuxbQmcc8bCbiGaXckMxUf3CjjQC4nSm9MWeSvUSbw5y7uad30/+4XjCO+4K5Bdctog+SQh3Fl+HqOyWMgKlrkvIB0vnSu2vXSd3pZdu3Iij+Y53WxlPehpTfbe8dXj5ZbCJAFYUX6UISwG6YpYXZUV9a42EKEeM6uEEkl946nF8uK1kRjnYcQfI7+vKXrqoXocfA1Ct3A+MA0bUrpJvxJvvKyv2//Y8fXPbD9JfG+V8237ZCQHIs1i+mNYQwZ8WQcLMNGR71Xo5r45D60oD0WCtw120dTO+0HYyoxzwhAHkrcOD/bCdiObpd/KKJcs8Spc2Qg43Y0zwCz96PJFv1p+oxwkDyBO+ahF9oE7wSLHSFq/jlmtevr5UoSD85JTZ7vyHHsLDJwreCYnC1cmuWEh3E8L1+epZZeeBgqskz7xrBN0ntm7Fr59IeFMCYN9iOmXIA//PGKeV14Fb9wPR4SNbf+iuOdHwpgRAM+UM4CFPJLsp8xVf+U5D0UiVlWV0e5Ma9D722Ph2lLYb+gn1gfFkViyi64DgXwhgRtxgkGusc+NwXw2gb8sT+Ey7QYx3vCkDUJTYS/OyIVhNAB8loA5rLCDiQQL4WtoNazZvntz/0nOsIKcUQHvznOLU34aLMYEZhPDG3HNgz2QtS44VWPX6KQlwopM6nve/C3CCtP8XkXlj9vMkaroAAAAASUVORK5CYII=");
+            agentProfileCache.invalidate(agentId);
         }
-
-        return body;
     }
 
     @Override
@@ -585,6 +540,111 @@ public class DifyAdapter implements LLMAdapter {
         }
     }
 
+    /**
+     * 批量查询消息对应的workflowRunId：先查流式对话时记录的对应关系，查不到的再查询Dify的数据库并回写
+     *
+     * @return 消息ID -> workflowRunId，查询失败时返回已查到的部分
+     */
+    private Map<String, Object> resolveWorkflowRunIds(List<String> messageIds) {
+        if (messageIds.isEmpty()) {
+            return Map.of();
+        }
+
+        Map<String, Object> workflowRunIds = messageWorkflowRunStore.resolve(messageIds);
+        if (workflowRunIds.size() == messageIds.size()) {
+            return workflowRunIds;
+        }
+
+        List<String> missing = messageIds.stream()
+                .filter(messageId -> !workflowRunIds.containsKey(messageId))
+                .toList();
+        try {
+            Map<String, Object> fromDify = messagesService.getWorkflowRunIdsByMessageIds(missing);
+            fromDify.forEach((messageId, workflowRunId) -> {
+                if (workflowRunId != null) {
+                    messageWorkflowRunStore.record(messageId, workflowRunId.toString());
+                }
+            });
+            workflowRunIds.putAll(fromDify);
+        } catch (Exception e) {
+            // 如果获取workflowRunId失败，记录日志但继续处理，work_flow_run_id返回null
+            log.error("获取workflowRunId失败，继续返回原始消息", e);
+        }
+        return workflowRunIds;
+    }
+
+    /**
+     * 消息列表请求地址
+     */
+    private String messagesUrl(String user, String conversationId, Integer limit) {
+        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(difyBaseUrl + "/v1/messages");
+        builder.queryParam("user", user);
+        if (conversationId != null && !conversationId.isEmpty()) {
+            builder.queryParam("conversation_id", conversationId);
+        }
+        if (limit != null) {
+            builder.queryParam("limit", limit);
+        }
+        return builder.toUriString();
+    }
+
+    /**
+     * 对话列表请求地址
+     */
+    private String conversationsUrl(String user, String lastId, Integer limit) {
+        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(difyBaseUrl + "/v1/conversations");
+        if (user != null && !user.isEmpty()) {
+            builder.queryParam("user", user);
+        } else {
+            // 根据jwt获取userId，防止报错
+            builder.queryParam("user", UserContext.getUserId());
+        }
+        if (lastId != null && !lastId.isEmpty()) {
+            builder.queryParam("last_id", lastId);
+        }
+        if (limit != null) {
+            builder.queryParam("limit", limit);
+        }
+        return builder.toUriString();
+    }
+
+    /**
+     * 将Dify的响应状态码、Content-Type和响应体字节直接写给客户端，不反序列化为Map再重新序列化
+     *
+     * Dify返回4xx/5xx时由RestTemplate的错误处理抛出异常，此时尚未写出任何内容，与其他接口一样返回统一的错误响应
+     */
+    private void passthrough(String url, HttpMethod method, String agentId, Object requestBody,
+                             HttpServletResponse servletResponse, String errorMessage) {
+        HttpEntity<Object> entity = new HttpEntity<>(requestBody, createHeaders(agentId));
+        try {
+            restTemplate.execute(url, method, restTemplate.httpEntityCallback(entity), response -> {
+                servletResponse.setStatus(response.getStatusCode().value());
+                MediaType contentType = response.getHeaders().getContentType();
+                if (contentType != null) {
+                    servletResponse.setContentType(contentType.toString());
+                }
+                long contentLength = response.getHeaders().getContentLength();
+                if (contentLength >= 0) {
+                    servletResponse.setContentLengthLong(contentLength);
+                }
+                StreamUtils.copy(response.getBody(), servletResponse.getOutputStream());
+                return null;
+            });
+        } catch (Exception e) {
+            log.error(errorMessage, e);
+            throw new RuntimeException(errorMessage + ": " + e.getMessage());
+        }
+    }
+
+    private void writeJson(HttpServletResponse response, Object body) {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        try {
+            objectMapper.writeValue(response.getOutputStream(), body);
+        } catch (IOException e) {
+            throw new RuntimeException("写出响应失败: " + e.getMessage());
+        }
+    }
+
     /**
      * 创建请求头
      */
@@ -605,7 +665,6 @@ public class DifyAdapter implements LLMAdapter {
         // 根据agentId获取对应的API Key
         String apiKey = getApiKeyByAgentId(agentId);
         headers.set("Authorization", "Bearer " + apiKey);
-        log.info("创建请求头Authorization: {}", "Bearer " + apiKey);
 
         return headers;
     }
@@ -615,9 +674,9 @@ public class DifyAdapter implements LLMAdapter {
      */
     private String getApiKeyByAgentId(String agentId) {
         try {
-            // 查询智能体信息
-            Agents agent = agentsMapper.selectById(agentId);
-            if (agent != null && agent.getApiKey() != null && !agent.getApiKey().isEmpty()) {
+            // 从智能体缓存读取，不再每次请求查询数据库
+            AgentProfileCache.AgentProfile agent = agentProfileCache.get(agentId);
+            if (agent != null && agent.getApiKey() != null) {
                 return agent.getApiKey();
             } else {
                 // 如果没有找到对应的API Key，使用默认的
@@ -0,0 +1,195 @@
+package com.diit.ds.chat.adapter.impl;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dify消息列表（/v1/messages）的流式处理
+ *
+ * 用Jackson流式API逐条读取消息，只解析排序和过滤需要的id、created_at、answer、error字段，
+ * 其余内容原样保存在TokenBuffer中，不构造嵌套Map；过滤掉没有回答或出错的消息，按created_at升序排列，
+ * 写出时在每条消息末尾追加work_flow_run_id字段
+ */
+final class DifyMessageList {
+
+    private static final String DATA = "data";
+    private static final String WORKFLOW_RUN_ID = "work_flow_run_id";
+
+    /**
+     * data以外的顶层字段（limit、has_more等），含起始的START_OBJECT，不含结束标记
+     */
+    private final TokenBuffer envelope;
+
+    private final List<Message> messages;
+
+    // 响应中是否有data字段，以及data是否为null
+    private final boolean dataPresent;
+    private final boolean dataNull;
+
+    private DifyMessageList(TokenBuffer envelope, List<Message> messages, boolean dataPresent, boolean dataNull) {
+        this.envelope = envelope;
+        this.messages = messages;
+        this.dataPresent = dataPresent;
+        this.dataNull = dataNull;
+    }
+
+    /**
+     * 读取Dify的消息列表响应，过滤并排序消息
+     */
+    static DifyMessageList parse(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Dify消息列表响应不是JSON对象");
+        }
+
+        TokenBuffer envelope = new TokenBuffer(parser);
+        envelope.copyCurrentEvent(parser);
+        List<Message> messages = new ArrayList<>();
+        boolean dataPresent = false;
+        boolean dataNull = false;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (DATA.equals(name)) {
+                dataPresent = true;
+                if (value == JsonToken.START_ARRAY) {
+                    readMessages(parser, messages);
+                } else {
+                    dataNull = value == JsonToken.VALUE_NULL;
+                    parser.skipChildren();
+                }
+            } else {
+                envelope.writeFieldName(name);
+                envelope.copyCurrentStructure(parser);
+            }
+        }
+
+        // List.sort为稳定排序，created_at相同的消息保持Dify返回的顺序
+        messages.sort(Comparator.comparingLong(Message::createdAt));
+        return new DifyMessageList(envelope, messages, dataPresent, dataNull);
+    }
+
+    /**
+     * 保留的消息ID，用于批量查询workflowRunId
+     */
+    List<String> messageIds() {
+        List<String> ids = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            if (message.id() != null) {
+                ids.add(message.id());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * 写出处理后的消息列表
+     *
+     * @param workflowRunIds 消息ID -> workflowRunId，未查到的消息写出null
+     */
+    void writeTo(JsonGenerator generator, Map<String, ?> workflowRunIds) throws IOException {
+        envelope.serialize(generator);
+        if (dataPresent) {
+            generator.writeFieldName(DATA);
+            if (dataNull) {
+                generator.writeNull();
+            } else {
+                generator.writeStartArray();
+                for (Message message : messages) {
+                    message.tokens().serialize(generator);
+                    generator.writeFieldName(WORKFLOW_RUN_ID);
+                    generator.writeObject(message.id() != null ? workflowRunIds.get(message.id()) : null);
+                    generator.writeEndObject();
+                }
+                generator.writeEndArray();
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    private static void readMessages(JsonParser parser, List<Message> messages) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.START_OBJECT) {
+                // 不是消息对象，丢弃
+                parser.skipChildren();
+                continue;
+            }
+            Message message = readMessage(parser);
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+    }
+
+    /**
+     * 读取一条消息，没有回答或有错误时返回null
+     */
+    private static Message readMessage(JsonParser parser) throws IOException {
+        TokenBuffer tokens = new TokenBuffer(parser);
+        tokens.copyCurrentEvent(parser);
+        String id = null;
+        long createdAt = 0L;
+        boolean hasAnswer = false;
+        boolean hasError = false;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (name) {
+                case "id" -> id = value.isScalarValue() && value != JsonToken.VALUE_NULL ? parser.getText() : null;
+                case "created_at" -> createdAt = readLong(parser, value);
+                case "answer" -> hasAnswer = isNonEmpty(parser, value);
+                case "error" -> hasError = isNonEmpty(parser, value);
+                default -> {
+                }
+            }
+            tokens.writeFieldName(name);
+            tokens.copyCurrentStructure(parser);
+        }
+
+        return hasAnswer && !hasError ? new Message(id, createdAt, tokens) : null;
+    }
+
+    private static long readLong(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NUMBER_INT || value == JsonToken.VALUE_NUMBER_FLOAT) {
+            return parser.getLongValue();
+        }
+        if (value == JsonToken.VALUE_STRING) {
+            try {
+                return Long.parseLong(parser.getText().trim());
+            } catch (NumberFormatException e) {
+                return 0L;
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * 字段值是否非空：null和空字符串为空，对象、数组等其他值视为非空
+     */
+    private static boolean isNonEmpty(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NULL) {
+            return false;
+        }
+        if (value == JsonToken.VALUE_STRING) {
+            return parser.getTextLength() > 0;
+        }
+        return true;
+    }
+
+    /**
+     * 一条消息：排序和关联用的字段，以及不含结束标记的原始内容
+     */
+    private record Message(String id, long createdAt, TokenBuffer tokens) {
+    }
+}
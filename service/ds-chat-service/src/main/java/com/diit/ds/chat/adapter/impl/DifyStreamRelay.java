@@ -0,0 +1,597 @@
+package com.diit.ds.chat.adapter.impl;
+
+import com.diit.ds.chat.cache.ChatStreamReplayCache;
+import com.diit.ds.chat.config.DifyConfig;
+import com.diit.ds.common.resilience.OutboundResilience;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Dify流式响应转发
+ *
+ * 作为JDK HttpClient异步请求的响应体订阅者接收Dify的SSE数据并写入SseEmitter；
+ * 每次写入完成后再请求下一批数据，客户端写入慢时由背压暂停读取上游，不需要专门的线程阻塞等待。
+ *
+ * 支持两种转发方式：
+ * 按行转发：解码每一行，取出data内容后重新封装为SSE事件发送；
+ * 原始字节转发：按空行切分出完整的SSE事件后原样写出，不做解码和重新封装，
+ * 并可在很短的时间窗口内把多个message（token）事件合并为一次写出，减少长回答的写入和flush次数。
+ *
+ * 开启断线重连时为每个data事件编号并写入{@link ChatStreamReplayCache}，客户端断开后继续接收上游，
+ * 供客户端携带Last-Event-ID重连后续传。
+ *
+ * 客户端断开（写入失败或SseEmitter的完成、超时、错误回调）时立即关闭上游连接，并按流中的task_id
+ * 调用Dify的停止接口，不再为无人接收的回答消耗工作线程和大模型token；开启断线重连时等待重连宽限期后再停止
+ */
+@Slf4j
+class DifyStreamRelay {
+
+    private static final String DATA_PREFIX = "data: ";
+
+    // 判断是否为token事件时只检查事件开头的这部分内容
+    private static final int EVENT_HEAD_LENGTH = 64;
+
+    private static final Pattern TASK_ID_PATTERN = Pattern.compile("\"task_id\"\\s*:\\s*\"([^\"]+)\"");
+
+    // 工作流应用的第一个事件workflow_started即带有message_id和workflow_run_id，超过这些事件仍未取得时（如非工作流应用）不再检查
+    private static final int MAX_INSPECTED_EVENTS = 8;
+
+    private static final Pattern MESSAGE_ID_PATTERN = Pattern.compile("\"message_id\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern WORKFLOW_RUN_ID_PATTERN = Pattern.compile("\"workflow_run_id\"\\s*:\\s*\"([^\"]+)\"");
+
+    private final SseEmitter emitter;
+    private final OutboundResilience.Permit permit;
+    private final ObjectMapper objectMapper;
+    private final boolean rawPassthrough;
+    private final long coalesceWindowNanos;
+    private final ScheduledExecutorService flushScheduler;
+    private final ChatStreamReplayCache replayCache;
+    private final String owner;
+    private final Consumer<String> upstreamStopper;
+    private final BiConsumer<String, String> workflowRunRecorder;
+    private final long reconnectGraceMillis;
+
+    private volatile Flow.Subscription subscription;
+    private volatile int statusCode;
+    private final AtomicBoolean finished = new AtomicBoolean();
+
+    // 原始字节转发时保护下面的缓冲区和对emitter的写入，合并写出可能在定时线程中执行
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // 尚未凑成完整事件的上游数据
+    private byte[] pending = new byte[4096];
+    private int pendingLength;
+    private int scanFrom;
+    // 等待合并写出的事件
+    private byte[] batch = new byte[4096];
+    private int batchLength;
+    private long batchStartNanos;
+    private boolean flushScheduled;
+
+    // 从流中取得的Dify任务ID，用于停止生成和断线重连
+    private volatile String taskId;
+    // 断线重连的事件缓存，收到第一个带task_id的事件后创建
+    private volatile ChatStreamReplayCache.ChatStream replayStream;
+    private long eventSeq;
+    // 开启断线重连时客户端断开后继续接收上游，只写入事件缓存
+    private volatile boolean clientGone;
+    private volatile long clientGoneAt;
+
+    // 从workflow_started等事件中取得的消息ID和工作流运行ID，两者都取得后记录一次
+    private String messageId;
+    private String workflowRunId;
+    private boolean workflowRunRecorded;
+    private int inspectedEvents;
+
+    DifyStreamRelay(SseEmitter emitter, OutboundResilience.Permit permit, ObjectMapper objectMapper,
+                    DifyConfig.Stream streamConfig, ScheduledExecutorService flushScheduler,
+                    ChatStreamReplayCache replayCache, String owner, Consumer<String> upstreamStopper,
+                    BiConsumer<String, String> workflowRunRecorder) {
+        this.emitter = emitter;
+        this.permit = permit;
+        this.objectMapper = objectMapper;
+        this.rawPassthrough = streamConfig.isRawPassthrough();
+        this.coalesceWindowNanos = flushScheduler == null ? 0L : streamConfig.getCoalesceWindow().toNanos();
+        this.flushScheduler = flushScheduler;
+        this.replayCache = replayCache != null && replayCache.isEnabled() ? replayCache : null;
+        this.owner = owner;
+        this.upstreamStopper = streamConfig.isStopOnDisconnect() ? upstreamStopper : null;
+        this.workflowRunRecorder = workflowRunRecorder;
+        this.workflowRunRecorded = workflowRunRecorder == null;
+        this.reconnectGraceMillis = streamConfig.getResume().getReconnectGrace().toMillis();
+
+        // 客户端断开时Tomcat回调，正常结束时finished已置位不做处理
+        emitter.onCompletion(() -> onEmitterClosed("连接已关闭"));
+        emitter.onTimeout(() -> onEmitterClosed("连接超时"));
+        emitter.onError(e -> onEmitterClosed(e.getMessage()));
+    }
+
+    private void onEmitterClosed(String reason) {
+        if (!finished.get() && !clientGone) {
+            onClientWriteFailed(new IOException(reason));
+        }
+    }
+
+    /**
+     * 响应处理器：200时订阅响应体，其他状态码丢弃响应体，在请求完成后返回错误信息
+     */
+    HttpResponse.BodyHandler<Void> bodyHandler() {
+        return responseInfo -> {
+            statusCode = responseInfo.statusCode();
+            if (statusCode != 200) {
+                return HttpResponse.BodySubscribers.discarding();
+            }
+            return rawPassthrough
+                    ? HttpResponse.BodySubscribers.fromSubscriber(new RawSubscriber())
+                    : HttpResponse.BodySubscribers.fromLineSubscriber(new LineSubscriber());
+        };
+    }
+
+    /**
+     * 异步请求完成（包括连接失败、响应体读取完毕或出错）时调用
+     */
+    void onResponse(HttpResponse<Void> response, Throwable error) {
+        try {
+            if (error != null) {
+                fail(error);
+                return;
+            }
+            if (response.statusCode() != 200) {
+                // 处理错误
+                log.error("Response code: {}", response.statusCode());
+                finish(new RuntimeException("Error from Dify API: " + response.statusCode()), response.statusCode(), false);
+                return;
+            }
+
+            if (rawPassthrough) {
+                writeLock.lock();
+                try {
+                    // 上游结束时末尾可能有不以空行结尾的事件，连同待合并的事件一起写出
+                    if (pendingLength > 0) {
+                        byte[] tail = Arrays.copyOf(pending, pendingLength);
+                        pendingLength = 0;
+                        onFrame(tail);
+                    }
+                    if (!clientGone) {
+                        flushBatch();
+                    }
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+
+            if (finished.compareAndSet(false, true)) {
+                releasePermit();
+                // 完成
+                if (!clientGone) {
+                    emitter.complete();
+                }
+            }
+        } finally {
+            if (replayStream != null) {
+                replayStream.complete();
+            }
+        }
+    }
+
+    /**
+     * 请求未能发出或上游读取失败
+     */
+    void fail(Throwable error) {
+        log.error("Error processing streaming response", error);
+        finish(error, 500, true);
+    }
+
+    private void finish(Throwable error, int errorStatus, boolean completeWithError) {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+        releasePermit();
+        if (clientGone) {
+            return;
+        }
+        try {
+            String message = errorStatus == 500
+                    ? "Error processing streaming response: " + error.getMessage()
+                    : error.getMessage();
+            Map<String, Object> errorResponse = Map.of(
+                    "error", Map.of(
+                            "message", message,
+                            "status_code", errorStatus
+                    )
+            );
+            emitter.send(SseEmitter.event().data(objectMapper.writeValueAsString(errorResponse), MediaType.APPLICATION_JSON));
+            if (completeWithError) {
+                emitter.completeWithError(error);
+            } else {
+                emitter.complete();
+            }
+        } catch (IOException | IllegalStateException ex) {
+            // 忽略发送错误的异常
+            log.error("Error sending error response", ex);
+        }
+    }
+
+    /**
+     * 写入客户端失败：开启断线重连时继续接收上游等待重连，否则停止读取上游
+     */
+    private void onClientWriteFailed(Exception e) {
+        if (replayStream == null) {
+            onClientGone(e);
+            return;
+        }
+        if (!clientGone) {
+            clientGoneAt = System.currentTimeMillis();
+            clientGone = true;
+            log.info("客户端已断开，继续接收Dify流式响应以便断线重连，任务: {}", replayStream.getTaskId());
+        }
+    }
+
+    /**
+     * 客户端断开后超过重连宽限期且没有重连的客户端在接收，放弃本次生成
+     */
+    private boolean abandoned() {
+        if (!clientGone || replayStream == null) {
+            return false;
+        }
+        long lastListenerAt = Math.max(clientGoneAt, replayStream.getLastListenerAt());
+        if (replayStream.hasListeners() || System.currentTimeMillis() - lastListenerAt < reconnectGraceMillis) {
+            return false;
+        }
+        onClientGone(new IOException("超过重连宽限期未重连"));
+        return true;
+    }
+
+    /**
+     * 客户端已断开，停止读取上游
+     */
+    private void onClientGone(Exception e) {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+        log.info("客户端已断开，停止转发Dify流式响应: {}", e.getMessage());
+        // 取消订阅即关闭上游连接
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        releasePermit();
+        if (replayStream != null) {
+            replayStream.complete();
+        }
+
+        // 上游连接关闭后Dify仍会继续生成，需要显式停止；收到第一个事件之前断开时没有task_id，无法停止
+        String currentTaskId = taskId;
+        if (upstreamStopper != null && currentTaskId != null) {
+            try {
+                upstreamStopper.accept(currentTaskId);
+                log.info("已停止Dify生成，任务: {}", currentTaskId);
+            } catch (Exception ex) {
+                log.warn("停止Dify生成失败，任务: {}, 错误: {}", currentTaskId, ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Dify已正常返回响应头，之后的异常（如客户端断开）不计入熔断失败率
+     */
+    private void releasePermit() {
+        if (statusCode > 0 && statusCode < 500) {
+            permit.success();
+        } else {
+            permit.failure();
+        }
+    }
+
+    /**
+     * 追加上游数据并切分出完整的事件，事件以空行结尾
+     */
+    private void onChunk(ByteBuffer buffer) {
+        int length = buffer.remaining();
+        if (pendingLength + length > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + length));
+        }
+        buffer.get(pending, pendingLength, length);
+        pendingLength += length;
+
+        int frameStart = 0;
+        for (int i = Math.max(scanFrom, 1); i < pendingLength; i++) {
+            if (pending[i] != '\n') {
+                continue;
+            }
+            // 空行：\n\n或\n\r\n
+            boolean frameEnd = (i - 1 >= frameStart && pending[i - 1] == '\n')
+                    || (i - 2 >= frameStart && pending[i - 1] == '\r' && pending[i - 2] == '\n');
+            if (frameEnd) {
+                onFrame(Arrays.copyOfRange(pending, frameStart, i + 1));
+                frameStart = i + 1;
+                if (finished.get()) {
+                    return;
+                }
+            }
+        }
+
+        if (frameStart > 0) {
+            System.arraycopy(pending, frameStart, pending, 0, pendingLength - frameStart);
+            pendingLength -= frameStart;
+        }
+        scanFrom = pendingLength;
+    }
+
+    /**
+     * 写出一个完整的事件：未开启合并时立即写出；token事件在时间窗口内合并，其他事件连同已合并的事件立即写出
+     */
+    private void onFrame(byte[] frame) {
+        writeLock.lock();
+        try {
+            if (isDataFrame(frame)) {
+                if (taskId == null || !workflowRunRecorded) {
+                    inspectEvent(new String(frame, StandardCharsets.UTF_8));
+                }
+                if (replayStream != null) {
+                    frame = withEventId(++eventSeq, frame);
+                    replayStream.append(eventSeq, frame);
+                }
+            }
+            if (clientGone) {
+                abandoned();
+                return;
+            }
+
+            appendToBatch(frame);
+            if (coalesceWindowNanos <= 0 || !isTokenEvent(frame)) {
+                flushBatch();
+                return;
+            }
+
+            long elapsed = System.nanoTime() - batchStartNanos;
+            if (elapsed >= coalesceWindowNanos) {
+                flushBatch();
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                flushScheduler.schedule(this::scheduledFlush, coalesceWindowNanos - elapsed, TimeUnit.NANOSECONDS);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void scheduledFlush() {
+        writeLock.lock();
+        try {
+            flushScheduled = false;
+            if (!finished.get()) {
+                flushBatch();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void appendToBatch(byte[] frame) {
+        if (batchLength == 0) {
+            batchStartNanos = System.nanoTime();
+        }
+        if (batchLength + frame.length > batch.length) {
+            batch = Arrays.copyOf(batch, Math.max(batch.length * 2, batchLength + frame.length));
+        }
+        System.arraycopy(frame, 0, batch, batchLength, frame.length);
+        batchLength += frame.length;
+    }
+
+    /**
+     * 一次写出全部待发送的事件，调用方需持有writeLock
+     *
+     * @return 写出失败（客户端已断开）时返回false
+     */
+    private boolean flushBatch() {
+        if (batchLength == 0) {
+            return true;
+        }
+        byte[] bytes = Arrays.copyOf(batch, batchLength);
+        batchLength = 0;
+        try {
+            emitter.send(Set.of(new ResponseBodyEmitter.DataWithMediaType(bytes, MediaType.TEXT_EVENT_STREAM)));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            onClientWriteFailed(e);
+            return false;
+        }
+    }
+
+    /**
+     * 从流的前几个事件中取得task_id和消息对应的工作流运行ID，都取得后不再检查后续事件
+     */
+    private void inspectEvent(String data) {
+        if (taskId == null) {
+            resolveTaskId(data);
+        }
+        if (!workflowRunRecorded) {
+            resolveWorkflowRun(data);
+        }
+    }
+
+    /**
+     * 记录消息ID与工作流运行ID的对应关系，供打开历史消息时查询，不再访问Dify的数据库
+     */
+    private void resolveWorkflowRun(String data) {
+        if (++inspectedEvents > MAX_INSPECTED_EVENTS) {
+            workflowRunRecorded = true;
+            return;
+        }
+        if (messageId == null) {
+            Matcher matcher = MESSAGE_ID_PATTERN.matcher(data);
+            if (matcher.find()) {
+                messageId = matcher.group(1);
+            }
+        }
+        if (workflowRunId == null) {
+            Matcher matcher = WORKFLOW_RUN_ID_PATTERN.matcher(data);
+            if (matcher.find()) {
+                workflowRunId = matcher.group(1);
+            }
+        }
+        if (messageId != null && workflowRunId != null) {
+            workflowRunRecorded = true;
+            try {
+                workflowRunRecorder.accept(messageId, workflowRunId);
+            } catch (RuntimeException e) {
+                log.warn("记录消息[{}]的工作流运行ID失败: {}", messageId, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 从事件中取得task_id，同时创建断线重连的事件缓存
+     */
+    private void resolveTaskId(String data) {
+        Matcher matcher = TASK_ID_PATTERN.matcher(data);
+        if (!matcher.find()) {
+            return;
+        }
+        if (replayCache != null) {
+            replayStream = replayCache.open(matcher.group(1), owner);
+        }
+        taskId = matcher.group(1);
+    }
+
+    private static boolean isDataFrame(byte[] frame) {
+        return frame.length >= 5 && frame[0] == 'd' && frame[1] == 'a' && frame[2] == 't' && frame[3] == 'a' && frame[4] == ':';
+    }
+
+    private static byte[] withEventId(long id, byte[] frame) {
+        byte[] idLine = ("id: " + id + "\n").getBytes(StandardCharsets.UTF_8);
+        byte[] result = Arrays.copyOf(idLine, idLine.length + frame.length);
+        System.arraycopy(frame, 0, result, idLine.length, frame.length);
+        return result;
+    }
+
+    /**
+     * message和agent_message事件为逐个token输出的回答内容，可以合并写出
+     */
+    private static boolean isTokenEvent(byte[] frame) {
+        String head = new String(frame, 0, Math.min(frame.length, EVENT_HEAD_LENGTH), StandardCharsets.UTF_8)
+                .replace(" ", "");
+        return head.contains("\"event\":\"message\"") || head.contains("\"event\":\"agent_message\"");
+    }
+
+    /**
+     * 按行转发：取出data内容后重新封装为SSE事件
+     */
+    private class LineSubscriber implements Flow.Subscriber<String> {
+
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            subscription = s;
+            // 客户端在订阅前已断开时onClientGone取消不到订阅，在此关闭上游连接
+            if (finished.get()) {
+                s.cancel();
+                return;
+            }
+            s.request(1);
+        }
+
+        @Override
+        public void onNext(String line) {
+            if (finished.get()) {
+                return;
+            }
+            if (line.startsWith(DATA_PREFIX)) {
+                String data = line.substring(DATA_PREFIX.length());
+                SseEmitter.SseEventBuilder event = SseEmitter.event();
+                if (taskId == null || !workflowRunRecorded) {
+                    inspectEvent(data);
+                }
+                if (replayStream != null) {
+                    long id = ++eventSeq;
+                    replayStream.append(id, ("id: " + id + "\n" + line + "\n\n").getBytes(StandardCharsets.UTF_8));
+                    event.id(String.valueOf(id));
+                }
+                if (!clientGone) {
+                    try {
+                        // 直接将数据发送给客户端
+                        emitter.send(event.data(data, MediaType.APPLICATION_JSON));
+                    } catch (IOException | IllegalStateException e) {
+                        onClientWriteFailed(e);
+                    }
+                } else if (abandoned()) {
+                    return;
+                }
+                if (finished.get()) {
+                    return;
+                }
+            }
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            // 由onResponse统一处理
+        }
+
+        @Override
+        public void onComplete() {
+            // 由onResponse统一处理
+        }
+    }
+
+    /**
+     * 原始字节转发：按事件切分后原样写出
+     */
+    private class RawSubscriber implements Flow.Subscriber<List<ByteBuffer>> {
+
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            subscription = s;
+            // 客户端在订阅前已断开时onClientGone取消不到订阅，在此关闭上游连接
+            if (finished.get()) {
+                s.cancel();
+                return;
+            }
+            s.request(1);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            if (finished.get()) {
+                return;
+            }
+            for (ByteBuffer buffer : buffers) {
+                onChunk(buffer);
+                if (finished.get()) {
+                    return;
+                }
+            }
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            // 由onResponse统一处理
+        }
+
+        @Override
+        public void onComplete() {
+            // 由onResponse统一处理
+        }
+    }
+}
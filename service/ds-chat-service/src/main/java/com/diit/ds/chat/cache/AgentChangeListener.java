@@ -0,0 +1,61 @@
+package com.diit.ds.chat.cache;
+
+import com.diit.ds.common.util.PgNotificationListener;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+
+/**
+ * 智能体变化监听
+ *
+ * 在primary数据源上通过PostgreSQL LISTEN/NOTIFY同步各实例的智能体凭证缓存：
+ * 通知内容为智能体ID时失效该智能体，内容为空时全量重新加载。
+ * 通知由agents表上的触发器发出（见sql/agents_notify.sql），修改方不需要更新update_date。
+ * 监听连接断开期间可能丢失通知，重新连接后全量重新加载，见{@link PgNotificationListener}
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AgentChangeListener implements InitializingBean, DisposableBean {
+
+    private final DataSource dataSource;
+    private final AgentProfileCache agentProfileCache;
+
+    @Value("${dify.api.agent-cache.listen.enabled:true}")
+    private boolean enabled;
+
+    @Value("${dify.api.agent-cache.listen.channel:agents_changed}")
+    private String channel;
+
+    @Value("${dify.api.agent-cache.listen.poll-timeout-ms:5000}")
+    private int pollTimeoutMs;
+
+    @Value("${dify.api.agent-cache.listen.retry-interval-ms:10000}")
+    private long retryIntervalMs;
+
+    private PgNotificationListener listener;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled) {
+            log.info("智能体变化监听未开启，仅依赖定时检查");
+            return;
+        }
+
+        listener = new PgNotificationListener(dataSource, channel, "智能体",
+                agentProfileCache::invalidate, agentProfileCache::reload, pollTimeoutMs, retryIntervalMs);
+        listener.start();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (listener != null) {
+            listener.stop();
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.diit.ds.chat.cache;
+
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.diit.ds.chat.domain.dto.AgentIconDTO;
+import com.diit.ds.domain.mapper.AgentsMapper;
+import com.diit.ds.domain.pojo.entity.Agents;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 智能体凭证与元数据缓存（智能体ID -> API Key、名称、图标）
+ *
+ * 启动时一次性加载agents表，Dify代理请求直接读取缓存，不再每次查询primary库；
+ * agents表的修改由触发器通知{@link AgentChangeListener}，失效对应智能体及其Dify应用静态信息缓存。
+ * 本服务不写agents表，修改方不一定更新update_date，定时比对update_date只用于未安装触发器的环境，
+ * 另有较长间隔的全量重新加载兜底监听断开等情况。
+ * 失效、全量加载和未命中加载后的写入在同一把锁内按版本号进行，失效之前发起的查询结果不会被写回缓存
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AgentProfileCache implements InitializingBean {
+
+    private static final String DEFAULT_ICON = "dify/default-agent-icon.png";
+
+    private final AgentsMapper agentsMapper;
+    private final DifyAppResponseCache difyAppResponseCache;
+
+    private volatile ConcurrentHashMap<String, AgentProfile> profiles = new ConcurrentHashMap<>();
+
+    // 失效或全量加载时递增，未命中加载期间版本变化则不缓存加载结果
+    private final AtomicLong version = new AtomicLong();
+
+    // 持锁期间查询数据库，使用ReentrantLock而非synchronized，虚拟线程阻塞时不会占住载体线程
+    private final ReentrantLock updateLock = new ReentrantLock();
+
+    // 智能体未设置图标时使用的默认图标
+    private AgentIconDTO defaultIcon;
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        try (InputStream in = new ClassPathResource(DEFAULT_ICON).getInputStream()) {
+            byte[] data = in.readAllBytes();
+            defaultIcon = new AgentIconDTO(data, MediaType.IMAGE_PNG_VALUE, DigestUtils.md5DigestAsHex(data));
+        }
+
+        try {
+            reload();
+        } catch (Exception e) {
+            // 启动时数据库不可用不影响应用启动，请求时按智能体ID单独加载
+            log.error("加载智能体凭证缓存失败: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 获取智能体的凭证与元数据
+     *
+     * @param agentId 智能体ID
+     * @return 智能体不存在时返回null
+     */
+    public AgentProfile get(String agentId) {
+        if (agentId == null || agentId.isBlank()) {
+            return null;
+        }
+
+        AgentProfile profile = profiles.get(agentId);
+        if (profile != null) {
+            return profile;
+        }
+
+        // 不存在的智能体不缓存，以便新增智能体立即生效；
+        // 不在computeIfAbsent中查询数据库，避免查询期间占住ConcurrentHashMap的桶锁
+        long loadVersion = version.get();
+        profile = load(agentId);
+        if (profile == null) {
+            return null;
+        }
+
+        updateLock.lock();
+        try {
+            if (version.get() != loadVersion) {
+                // 查询期间有失效或全量加载，本次结果可能已过期，只用于本次请求
+                return profile;
+            }
+            AgentProfile existing = profiles.putIfAbsent(agentId, profile);
+            return existing != null ? existing : profile;
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    /**
+     * 获取智能体图标，未设置图标或图标不是data URI时返回默认图标
+     *
+     * @param agentId 智能体ID，为空时返回默认图标
+     */
+    public AgentIconDTO getIcon(String agentId) {
+        AgentProfile profile = get(agentId);
+        if (profile == null || !profile.hasInlineImage()) {
+            return defaultIcon;
+        }
+        AgentIconDTO icon = profile.decodeIcon();
+        return icon != null ? icon : defaultIcon;
+    }
+
+    /**
+     * 使指定智能体的缓存失效，下次请求时重新加载
+     *
+     * @param agentId 智能体ID
+     */
+    public void invalidate(String agentId) {
+        if (agentId == null) {
+            return;
+        }
+
+        updateLock.lock();
+        try {
+            version.incrementAndGet();
+            profiles.remove(agentId);
+        } finally {
+            updateLock.unlock();
+        }
+        difyAppResponseCache.invalidate(agentId);
+        log.debug("智能体凭证缓存已失效: {}", agentId);
+    }
+
+    /**
+     * 重新加载全部智能体，API Key或更新时间变化的智能体同时失效应用静态信息缓存；
+     * 加载期间的失效等待加载完成后再执行，不会被加载结果覆盖
+     */
+    public void reload() {
+        updateLock.lock();
+        try {
+            version.incrementAndGet();
+            doReload();
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    private void doReload() {
+        List<Agents> rows = agentsMapper.selectList(Wrappers.<Agents>lambdaQuery()
+                .select(Agents::getId, Agents::getApiKey, Agents::getName, Agents::getIcon, Agents::getUpdateDate));
+
+        ConcurrentHashMap<String, AgentProfile> loaded = new ConcurrentHashMap<>();
+        for (Agents row : rows) {
+            AgentProfile profile = AgentProfile.of(row);
+            loaded.put(profile.getAgentId(), profile);
+        }
+
+        Map<String, AgentProfile> previous = profiles;
+        previous.forEach((agentId, old) -> {
+            AgentProfile current = loaded.get(agentId);
+            if (current == null || !Objects.equals(current.getApiKey(), old.getApiKey())
+                    || !Objects.equals(current.getUpdateDate(), old.getUpdateDate())) {
+                difyAppResponseCache.invalidate(agentId);
+            }
+        });
+        profiles = loaded;
+        log.info("智能体凭证缓存已加载，智能体数: {}", loaded.size());
+    }
+
+    /**
+     * 定时比对智能体的更新时间，只查询ID和update_date，变化或删除的智能体失效后按需重新加载
+     */
+    @Scheduled(initialDelayString = "${dify.api.agent-cache.check-interval-ms:30000}",
+            fixedDelayString = "${dify.api.agent-cache.check-interval-ms:30000}")
+    public void checkChanges() {
+        try {
+            List<Agents> rows = agentsMapper.selectList(Wrappers.<Agents>lambdaQuery()
+                    .select(Agents::getId, Agents::getUpdateDate));
+
+            Set<String> existing = new HashSet<>();
+            for (Agents row : rows) {
+                String agentId = String.valueOf(row.getId());
+                existing.add(agentId);
+                AgentProfile cached = profiles.get(agentId);
+                if (cached != null && !Objects.equals(cached.getUpdateDate(), row.getUpdateDate())) {
+                    invalidate(agentId);
+                }
+            }
+            profiles.keySet().stream()
+                    .filter(agentId -> !existing.contains(agentId))
+                    .toList()
+                    .forEach(this::invalidate);
+        } catch (Exception e) {
+            log.error("检查智能体变化失败: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 定时兜底全量刷新，防止直接修改数据库且未更新update_date导致的长期不一致
+     */
+    @Scheduled(initialDelayString = "${dify.api.agent-cache.refresh-interval-ms:600000}",
+            fixedDelayString = "${dify.api.agent-cache.refresh-interval-ms:600000}")
+    public void refresh() {
+        try {
+            reload();
+        } catch (Exception e) {
+            log.error("刷新智能体凭证缓存失败: {}", e.getMessage(), e);
+        }
+    }
+
+    private AgentProfile load(String agentId) {
+        if (agentId.length() > 9 || !agentId.chars().allMatch(Character::isDigit)) {
+            return null;
+        }
+        Agents row = agentsMapper.selectOne(Wrappers.<Agents>lambdaQuery()
+                .select(Agents::getId, Agents::getApiKey, Agents::getName, Agents::getIcon, Agents::getUpdateDate)
+                .eq(Agents::getId, Integer.valueOf(agentId)));
+        return row == null ? null : AgentProfile.of(row);
+    }
+
+    /**
+     * 智能体的凭证与元数据
+     */
+    @Getter
+    @RequiredArgsConstructor
+    public static class AgentProfile {
+        private final String agentId;
+        private final String apiKey;
+        private final String name;
+        private final String icon;
+        private final LocalDateTime updateDate;
+
+        // 首次请求图标时解码，智能体变化后随整个对象替换
+        private volatile AgentIconDTO decodedIcon;
+
+        /**
+         * 图标是否为内嵌的data URI图片（否则为emoji或外部链接等，直接在元数据中返回）
+         */
+        public boolean hasInlineImage() {
+            return icon != null && icon.startsWith("data:") && icon.contains(";base64,");
+        }
+
+        AgentIconDTO decodeIcon() {
+            AgentIconDTO decoded = decodedIcon;
+            if (decoded == null) {
+                int separator = icon.indexOf(";base64,");
+                try {
+                    byte[] data = Base64.getMimeDecoder().decode(icon.substring(separator + ";base64,".length()));
+                    String contentType = icon.substring("data:".length(), separator);
+                    decoded = new AgentIconDTO(data, contentType.isBlank() ? MediaType.IMAGE_PNG_VALUE : contentType,
+                            DigestUtils.md5DigestAsHex(data));
+                } catch (IllegalArgumentException e) {
+                    log.warn("智能体[{}]的图标不是有效的base64图片: {}", agentId, e.getMessage());
+                    return null;
+                }
+                decodedIcon = decoded;
+            }
+            return decoded;
+        }
+
+        static AgentProfile of(Agents agent) {
+            String apiKey = agent.getApiKey() == null || agent.getApiKey().isEmpty() ? null : agent.getApiKey();
+            return new AgentProfile(String.valueOf(agent.getId()), apiKey, agent.getName(), agent.getIcon(),
+                    agent.getUpdateDate());
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package com.diit.ds.chat.cache;
+
+import com.diit.ds.chat.config.DifyConfig;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 流式对话事件缓存，用于断线重连
+ *
+ * 按Dify的task_id缓存已转发的SSE事件（带事件编号），客户端断线后携带Last-Event-ID重连时，
+ * 先重放该编号之后的事件，生成未结束时继续接收后续事件，避免网络抖动导致整个回答重新生成。
+ * 每个任务缓存的字节数有上限，生成结束或长时间没有新事件后保留ttl时间
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ChatStreamReplayCache {
+
+    private final DifyConfig difyConfig;
+
+    private final ConcurrentHashMap<String, ChatStream> streams = new ConcurrentHashMap<>();
+
+    // 缓存的任务数，先占位再放入，并发创建时不会超过上限
+    private final AtomicInteger streamCount = new AtomicInteger();
+
+    /**
+     * 是否开启断线重连
+     */
+    public boolean isEnabled() {
+        return difyConfig.getStream().getResume().isEnabled();
+    }
+
+    /**
+     * 为对话任务创建事件缓存
+     *
+     * @param taskId Dify任务ID
+     * @param owner 发起对话的用户ID，重连时校验
+     * @return 事件缓存，未开启、无法确定用户或缓存任务数已满时返回null
+     */
+    public ChatStream open(String taskId, String owner) {
+        DifyConfig.Resume resume = difyConfig.getStream().getResume();
+        if (!resume.isEnabled() || taskId == null) {
+            return null;
+        }
+        if (owner == null || owner.isEmpty()) {
+            // 无法校验重连的用户，不缓存，避免仅凭task_id即可读取他人的对话
+            return null;
+        }
+        if (streamCount.incrementAndGet() > resume.getMaxStreams()) {
+            streamCount.decrementAndGet();
+            log.warn("缓存的流式对话数已达上限{}，任务[{}]不支持断线重连", resume.getMaxStreams(), taskId);
+            return null;
+        }
+        ChatStream stream = new ChatStream(taskId, owner, resume.getMaxBytes());
+        if (streams.put(taskId, stream) != null) {
+            // 同一任务重复创建，替换了原有缓存，不占用新的名额
+            streamCount.decrementAndGet();
+        }
+        return stream;
+    }
+
+    /**
+     * 断线重连：重放lastEventId之后的事件，生成未结束时继续接收后续事件
+     *
+     * @param taskId Dify任务ID
+     * @param lastEventId 客户端最后收到的事件编号，为空时从头重放
+     * @param userId 当前用户ID
+     * @param emitter 新的SSE连接
+     * @return 任务不存在、已过期或不属于当前用户时返回false
+     */
+    public boolean resume(String taskId, Long lastEventId, String userId, SseEmitter emitter) {
+        ChatStream stream = streams.get(taskId);
+        if (stream == null) {
+            return false;
+        }
+        if (!stream.owner.equals(userId)) {
+            log.warn("用户[{}]尝试重连不属于自己的对话任务[{}]", userId, taskId);
+            return false;
+        }
+        return stream.attach(lastEventId == null ? 0L : lastEventId, emitter);
+    }
+
+    /**
+     * 清理生成结束或长时间没有新事件的任务缓存
+     */
+    @Scheduled(fixedDelay = 30000)
+    public void evictExpired() {
+        if (streams.isEmpty()) {
+            return;
+        }
+        long expireBefore = System.currentTimeMillis() - difyConfig.getStream().getResume().getTtl().toMillis();
+        streams.entrySet().removeIf(entry -> {
+            if (entry.getValue().lastActiveAt >= expireBefore) {
+                return false;
+            }
+            // 上游已不再产生事件，断开仍在等待的重连
+            entry.getValue().complete();
+            streamCount.decrementAndGet();
+            return true;
+        });
+    }
+
+    /**
+     * 单个对话任务的事件缓存
+     */
+    public static class ChatStream {
+        private final String taskId;
+        private final String owner;
+        private final int maxBytes;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Deque<Event> events = new ArrayDeque<>();
+        private int bytes;
+        // 因超出字节上限被丢弃的最大事件编号
+        private long evictedUpTo;
+        private boolean completed;
+        private final List<Listener> attached = new ArrayList<>();
+        private volatile long lastActiveAt = System.currentTimeMillis();
+        // 最近一次有重连的客户端在接收的时间
+        private volatile long lastListenerAt;
+
+        ChatStream(String taskId, String owner, int maxBytes) {
+            this.taskId = taskId;
+            this.owner = owner;
+            this.maxBytes = maxBytes;
+        }
+
+        public String getTaskId() {
+            return taskId;
+        }
+
+        public long getLastListenerAt() {
+            return lastListenerAt;
+        }
+
+        /**
+         * 是否有重连的客户端正在接收
+         */
+        public boolean hasListeners() {
+            lock.lock();
+            try {
+                return !attached.isEmpty();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 缓存一个已编号的事件，并转发给已重连的客户端
+         * 转发在锁外进行，客户端写入慢时不阻塞重连、断开等需要持锁的操作；
+         * 事件只由转发线程按顺序追加，锁外写入不会乱序
+         *
+         * @param id 事件编号，从1开始递增
+         * @param frame 完整的SSE事件（含id行）
+         */
+        public void append(long id, byte[] frame) {
+            List<Listener> listeners = new ArrayList<>();
+            lock.lock();
+            try {
+                if (completed) {
+                    return;
+                }
+                lastActiveAt = System.currentTimeMillis();
+                events.addLast(new Event(id, frame));
+                bytes += frame.length;
+                while (bytes > maxBytes && events.size() > 1) {
+                    Event evicted = events.removeFirst();
+                    bytes -= evicted.frame().length;
+                    evictedUpTo = evicted.id();
+                }
+
+                if (attached.isEmpty()) {
+                    return;
+                }
+                // 在此之后重连的客户端由attach重放本事件，不在本次转发范围内；
+                // 仍在重放的客户端先排队，由重放线程在重放结束后按顺序写入
+                for (Listener listener : attached) {
+                    if (listener.replaying) {
+                        listener.pending.addLast(frame);
+                    } else {
+                        listeners.add(listener);
+                    }
+                }
+                lastListenerAt = lastActiveAt;
+            } finally {
+                lock.unlock();
+            }
+
+            for (Listener listener : listeners) {
+                if (!write(listener.emitter, frame)) {
+                    detach(listener);
+                }
+            }
+        }
+
+        /**
+         * 上游生成结束，结束已重连的客户端，缓存继续保留ttl时间供之后的重连重放
+         */
+        public void complete() {
+            lock.lock();
+            try {
+                if (completed) {
+                    return;
+                }
+                completed = true;
+                lastActiveAt = System.currentTimeMillis();
+                for (Listener listener : attached) {
+                    // 仍在重放的客户端由重放线程写完排队的事件后结束
+                    if (!listener.replaying) {
+                        listener.emitter.complete();
+                    }
+                }
+                attached.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 持锁取得待重放事件的快照并登记为接收者，在锁外写入重放事件，保证慢客户端不阻塞转发；
+         * 重放期间到达的实时事件排在该接收者的队列中，重放结束后按顺序写入，不重复、不遗漏
+         */
+        boolean attach(long lastEventId, SseEmitter emitter) {
+            List<byte[]> replay = new ArrayList<>();
+            Listener listener = null;
+            boolean expired;
+            lock.lock();
+            try {
+                expired = lastEventId < evictedUpTo;
+                if (!expired) {
+                    for (Event event : events) {
+                        if (event.id() > lastEventId) {
+                            replay.add(event.frame());
+                        }
+                    }
+                    if (!completed) {
+                        listener = new Listener(emitter);
+                        attached.add(listener);
+                        lastListenerAt = System.currentTimeMillis();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (expired) {
+                // 需要的事件已被丢弃，无法完整续传
+                String error = "{\"event\":\"error\",\"task_id\":\"" + taskId
+                        + "\",\"status\":410,\"code\":\"stream_expired\",\"message\":\"部分事件已过期，无法续传\"}";
+                write(emitter, ("data: " + error + "\n\n").getBytes(StandardCharsets.UTF_8));
+                emitter.complete();
+                return true;
+            }
+
+            if (listener == null) {
+                // 生成已结束，重放后直接结束
+                for (byte[] frame : replay) {
+                    if (!write(emitter, frame)) {
+                        return true;
+                    }
+                }
+                emitter.complete();
+                return true;
+            }
+
+            Listener registered = listener;
+            Runnable detach = () -> detach(registered);
+            emitter.onCompletion(detach);
+            emitter.onError(e -> detach.run());
+            do {
+                for (byte[] frame : replay) {
+                    if (!write(emitter, frame)) {
+                        detach(listener);
+                        return true;
+                    }
+                }
+                replay = drainPending(listener);
+            } while (!replay.isEmpty());
+            return true;
+        }
+
+        /**
+         * 取出重放期间排队的实时事件，队列为空时结束重放，之后的事件由append直接写入
+         */
+        private List<byte[]> drainPending(Listener listener) {
+            lock.lock();
+            try {
+                if (!listener.pending.isEmpty()) {
+                    List<byte[]> frames = new ArrayList<>(listener.pending);
+                    listener.pending.clear();
+                    return frames;
+                }
+                listener.replaying = false;
+                if (!attached.contains(listener)) {
+                    // 重放期间生成已结束（complete已清空接收者）或客户端已断开
+                    listener.emitter.complete();
+                }
+                return List.of();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void detach(Listener listener) {
+            lock.lock();
+            try {
+                if (attached.remove(listener)) {
+                    lastListenerAt = System.currentTimeMillis();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private static boolean write(SseEmitter emitter, byte[] frame) {
+            try {
+                emitter.send(Set.of(new ResponseBodyEmitter.DataWithMediaType(frame, MediaType.TEXT_EVENT_STREAM)));
+                return true;
+            } catch (IOException | IllegalStateException e) {
+                return false;
+            }
+        }
+    }
+
+    private record Event(long id, byte[] frame) {
+    }
+
+    /**
+     * 重连的客户端，replaying和pending由ChatStream的锁保护
+     */
+    private static class Listener {
+        private final SseEmitter emitter;
+        private final Deque<byte[]> pending = new ArrayDeque<>();
+        private boolean replaying = true;
+
+        Listener(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.diit.ds.chat.cache;
+
+import com.diit.ds.chat.config.DifyConfig;
+import com.diit.ds.chat.domain.dto.AppResponseDTO;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Dify应用静态信息缓存（/v1/info、/v1/parameters、/v1/meta）
+ *
+ * 这些响应只在应用重新发布时变化，按智能体缓存Dify返回的原始字节并在写入时计算ETag，过期时间内不再请求Dify；
+ * 智能体变化时由{@link AgentProfileCache}失效，也可通过接口手动失效
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DifyAppResponseCache implements InitializingBean {
+
+    public static final String INFO = "info";
+    public static final String PARAMETERS = "parameters";
+    public static final String META = "meta";
+
+    private static final List<String> RESOURCES = List.of(INFO, PARAMETERS, META);
+
+    // 未指定智能体（使用默认API Key）时的缓存键
+    private static final String DEFAULT_AGENT = "";
+
+    private final DifyConfig difyConfig;
+    private final MeterRegistry meterRegistry;
+
+    private Cache<String, AppResponseDTO> cache;
+
+    @Override
+    public void afterPropertiesSet() {
+        DifyConfig.AppCache config = difyConfig.getAppCache();
+        cache = Caffeine.newBuilder()
+                .expireAfterWrite(config.getTtl())
+                .maximumSize(config.getMaximumSize())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "dify-app-response");
+    }
+
+    /**
+     * 获取缓存的响应，未命中时调用loader请求Dify并缓存
+     *
+     * @param resource 响应类型，{@link #INFO}、{@link #PARAMETERS}或{@link #META}
+     * @param agentId 智能体ID，为空表示默认应用
+     * @param loader 请求Dify获取响应
+     */
+    public AppResponseDTO get(String resource, String agentId, Supplier<byte[]> loader) {
+        String key = key(resource, agentId);
+        AppResponseDTO cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        // 不使用cache.get(key, loader)，避免请求Dify期间占住缓存的桶锁；并发未命中时各自请求一次
+        byte[] body = loader.get();
+        if (body == null) {
+            return new AppResponseDTO(null, null);
+        }
+        AppResponseDTO response = new AppResponseDTO(body, DigestUtils.md5DigestAsHex(body));
+        cache.put(key, response);
+        return response;
+    }
+
+    /**
+     * 使指定智能体的全部缓存响应失效
+     *
+     * @param agentId 智能体ID，为空表示默认应用
+     */
+    public void invalidate(String agentId) {
+        for (String resource : RESOURCES) {
+            cache.invalidate(key(resource, agentId));
+        }
+        log.debug("应用静态信息缓存已失效: {}", agentId);
+    }
+
+    /**
+     * 使全部缓存响应失效
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+        log.info("应用静态信息缓存已全部失效");
+    }
+
+    private static String key(String resource, String agentId) {
+        return resource + ":" + (agentId == null || agentId.isBlank() ? DEFAULT_AGENT : agentId);
+    }
+}
@@ -0,0 +1,201 @@
+package com.diit.ds.chat.cache;
+
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.diit.ds.domain.mapper.MessageWorkflowRunMapper;
+import com.diit.ds.domain.pojo.entity.MessageWorkflowRun;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dify消息ID与工作流运行ID的对应关系（message_id -> workflow_run_id）
+ *
+ * 流式对话转发时从事件中取得对应关系，写入本地缓存并由后台线程攒批写入primary库的message_workflow_run表；
+ * 打开历史消息时先查缓存和该表，只有查不到的消息（如本功能上线前的历史消息）才查询Dify的数据库，查到后回写本表
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class MessageWorkflowRunStore implements InitializingBean, DisposableBean {
+
+    private final MessageWorkflowRunMapper messageWorkflowRunMapper;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${dify.api.workflow-run-store.cache.maximum-size:20000}")
+    private long cacheMaximumSize;
+
+    @Value("${dify.api.workflow-run-store.cache.expire-hours:24}")
+    private int cacheExpireHours;
+
+    @Value("${dify.api.workflow-run-store.queue-capacity:5000}")
+    private int queueCapacity;
+
+    @Value("${dify.api.workflow-run-store.batch-size:200}")
+    private int batchSize;
+
+    @Value("${dify.api.workflow-run-store.flush-interval-ms:500}")
+    private long flushIntervalMs;
+
+    private Cache<String, String> cache;
+
+    private BlockingQueue<MessageWorkflowRun> queue;
+
+    private Thread worker;
+
+    private volatile boolean running;
+
+    @Override
+    public void afterPropertiesSet() {
+        cache = Caffeine.newBuilder()
+                .expireAfterAccess(cacheExpireHours, TimeUnit.HOURS)
+                .maximumSize(cacheMaximumSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "message-workflow-run");
+
+        queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        running = true;
+        worker = new Thread(this::runWorker, "message-workflow-run-persist");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * 应用关闭时停止后台线程，并将队列中剩余的对应关系写入数据库
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        worker.interrupt();
+        worker.join(TimeUnit.SECONDS.toMillis(10));
+
+        List<MessageWorkflowRun> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            log.info("应用关闭，写入剩余的消息工作流运行ID: {} 条", remaining.size());
+            write(remaining);
+        }
+    }
+
+    /**
+     * 记录对应关系，在流式响应的读取线程中调用，不等待数据库写入
+     *
+     * @param messageId Dify消息ID
+     * @param workflowRunId Dify工作流运行ID
+     */
+    public void record(String messageId, String workflowRunId) {
+        if (messageId == null || workflowRunId == null) {
+            return;
+        }
+        if (workflowRunId.equals(cache.getIfPresent(messageId))) {
+            return;
+        }
+        cache.put(messageId, workflowRunId);
+
+        MessageWorkflowRun row = new MessageWorkflowRun();
+        row.setMessageId(messageId);
+        row.setWorkflowRunId(workflowRunId);
+        row.setCreateTime(new Date());
+        if (!queue.offer(row)) {
+            // 队列已满时只保留在缓存中，缓存淘汰后查询时回退到Dify的数据库
+            log.warn("消息工作流运行ID写入队列已满，丢弃: {}", messageId);
+        }
+    }
+
+    /**
+     * 查询消息对应的工作流运行ID，先查缓存，未命中的再批量查询message_workflow_run表
+     *
+     * @param messageIds 消息ID
+     * @return 消息ID -> 工作流运行ID，不包含查不到的消息
+     */
+    public Map<String, Object> resolve(List<String> messageIds) {
+        Map<String, Object> result = new HashMap<>(cache.getAllPresent(messageIds));
+        if (result.size() == messageIds.size()) {
+            return result;
+        }
+
+        List<String> missing = new ArrayList<>(messageIds.size() - result.size());
+        for (String messageId : messageIds) {
+            if (!result.containsKey(messageId)) {
+                missing.add(messageId);
+            }
+        }
+        try {
+            List<MessageWorkflowRun> rows = messageWorkflowRunMapper.selectList(Wrappers.<MessageWorkflowRun>lambdaQuery()
+                    .select(MessageWorkflowRun::getMessageId, MessageWorkflowRun::getWorkflowRunId)
+                    .in(MessageWorkflowRun::getMessageId, missing));
+            for (MessageWorkflowRun row : rows) {
+                cache.put(row.getMessageId(), row.getWorkflowRunId());
+                result.put(row.getMessageId(), row.getWorkflowRunId());
+            }
+        } catch (Exception e) {
+            log.error("查询消息工作流运行ID失败: {}", e.getMessage(), e);
+        }
+        return result;
+    }
+
+    /**
+     * 后台写入线程：等待第一条数据后在刷新间隔内继续攒批，攒满batchSize或到达刷新间隔后批量写入
+     */
+    private void runWorker() {
+        List<MessageWorkflowRun> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                MessageWorkflowRun first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    MessageWorkflowRun next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                write(batch);
+            } catch (InterruptedException e) {
+                // 关闭时被中断，写入已攒的数据，队列中剩余数据由destroy写入
+                if (!batch.isEmpty()) {
+                    write(batch);
+                }
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<MessageWorkflowRun> batch) {
+        try {
+            messageWorkflowRunMapper.insertIgnore(batch);
+            log.debug("批量写入消息工作流运行ID: {} 条", batch.size());
+        } catch (Exception e) {
+            // 写入失败的对应关系仍在缓存中，缓存淘汰后查询时回退到Dify的数据库
+            log.error("批量写入消息工作流运行ID失败: {}", e.getMessage(), e);
+        }
+    }
+}
@@ -4,6 +4,8 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+
 @Data
 @Configuration
 @ConfigurationProperties(prefix = "dify.api")
@@ -12,4 +14,98 @@ public class DifyConfig {
     private String baseUrl;
 
     private String chatAgentToken;
+
+    /**
+     * 流式对话配置
+     */
+    private Stream stream = new Stream();
+
+    /**
+     * 应用静态信息（info、parameters、meta）缓存配置
+     */
+    private AppCache appCache = new AppCache();
+
+    @Data
+    public static class AppCache {
+        /**
+         * 服务端缓存时间，应用重新发布后最迟在此时间后生效
+         */
+        private Duration ttl = Duration.ofMinutes(10);
+
+        /**
+         * 最大缓存响应数
+         */
+        private long maximumSize = 3000;
+
+        /**
+         * 浏览器缓存时间（Cache-Control max-age），过期后通过ETag协商
+         */
+        private Duration clientMaxAge = Duration.ofSeconds(60);
+    }
+
+    @Data
+    public static class Stream {
+        /**
+         * 连接超时
+         */
+        private Duration connectTimeout = Duration.ofSeconds(5);
+
+        /**
+         * 等待Dify返回响应头的超时时间，收到响应头后流式读取不限时
+         */
+        private Duration responseTimeout = Duration.ofSeconds(60);
+
+        /**
+         * 是否优先使用HTTP/2（https通过ALPN协商，不支持时自动回退HTTP/1.1）
+         */
+        private boolean http2 = false;
+
+        /**
+         * 是否按原始字节转发上游的SSE事件，不解码和重新封装
+         */
+        private boolean rawPassthrough = false;
+
+        /**
+         * 原始字节转发时合并token事件的时间窗口，0表示不合并
+         */
+        private Duration coalesceWindow = Duration.ZERO;
+
+        /**
+         * 客户端断开时是否关闭上游连接并调用Dify的停止接口
+         */
+        private boolean stopOnDisconnect = true;
+
+        /**
+         * 断线重连配置
+         */
+        private Resume resume = new Resume();
+    }
+
+    @Data
+    public static class Resume {
+        /**
+         * 是否开启断线重连，开启后为每个事件编号并缓存已转发的事件
+         */
+        private boolean enabled = false;
+
+        /**
+         * 生成结束或无新事件后缓存的保留时间
+         */
+        private Duration ttl = Duration.ofMinutes(2);
+
+        /**
+         * 每个对话任务缓存事件的最大字节数，超过后丢弃最早的事件
+         */
+        private int maxBytes = 256 * 1024;
+
+        /**
+         * 同时缓存的对话任务数上限，超过后新的对话不支持重连
+         */
+        private int maxStreams = 2000;
+
+        /**
+         * 客户端断开后等待重连的时间，超过后没有客户端重连则停止生成
+         */
+        private Duration reconnectGrace = Duration.ofSeconds(30);
+    }
 }
@@ -0,0 +1,25 @@
+package com.diit.ds.chat.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.net.http.HttpClient;
+
+/**
+ * Dify流式对话使用的HTTP客户端配置
+ *
+ * 使用JDK HttpClient的异步接口，响应数据由客户端内部的选择器线程读取后回调处理，
+ * 流式对话期间不占用专门的等待线程
+ */
+@Configuration
+public class DifyStreamClientConfig {
+
+    @Bean
+    public HttpClient difyStreamHttpClient(DifyConfig difyConfig) {
+        DifyConfig.Stream stream = difyConfig.getStream();
+        return HttpClient.newBuilder()
+                .version(stream.isHttp2() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(stream.getConnectTimeout())
+                .build();
+    }
+}
@@ -0,0 +1,26 @@
+package com.diit.ds.chat.domain.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 智能体图标
+ */
+@Data
+@AllArgsConstructor
+public class AgentIconDTO {
+    /**
+     * 图片内容
+     */
+    private byte[] data;
+
+    /**
+     * 图片类型，如image/png
+     */
+    private String contentType;
+
+    /**
+     * 图片内容的摘要，用作HTTP ETag
+     */
+    private String etag;
+}
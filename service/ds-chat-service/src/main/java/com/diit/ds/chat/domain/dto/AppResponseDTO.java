@@ -0,0 +1,21 @@
+package com.diit.ds.chat.domain.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 缓存的应用静态信息响应（/v1/info、/v1/parameters、/v1/meta）
+ */
+@Data
+@AllArgsConstructor
+public class AppResponseDTO {
+    /**
+     * Dify返回的JSON原始字节，不反序列化直接返回给客户端，调用方不可修改
+     */
+    private byte[] body;
+
+    /**
+     * 响应内容的摘要，用作HTTP ETag，响应为空时为null
+     */
+    private String etag;
+}
@@ -1,5 +1,8 @@
 package com.diit.ds.chat.service;
 
+import com.diit.ds.chat.domain.dto.AgentIconDTO;
+import com.diit.ds.chat.domain.dto.AppResponseDTO;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -29,24 +32,25 @@ public interface LLMService {
     void processStreamingResponse(String agentId, Map<String, Object> requestBody, SseEmitter emitter);
     
     /**
-     * 停止生成响应
+     * 流式响应断线重连：重放lastEventId之后的事件，生成未结束时继续接收后续事件
      * 
-     * @param agentId 智能体ID
      * @param taskId 任务ID
-     * @param requestBody 请求体
-     * @return 响应结果
+     * @param lastEventId 客户端最后收到的事件编号
+     * @param user 发起对话时的user，未登录时用于校验任务归属
+     * @param emitter SSE发射器
+     * @return 任务不存在、已过期或不属于当前用户时返回false
      */
-    Map<String, Object> stopGenerating(String agentId, String taskId, Map<String, Object> requestBody);
+    boolean resumeStreamingResponse(String taskId, Long lastEventId, String user, SseEmitter emitter);
     
     /**
-     * 提交消息反馈
+     * 停止生成响应
      * 
      * @param agentId 智能体ID
-     * @param messageId 消息ID
+     * @param taskId 任务ID
      * @param requestBody 请求体
      * @return 响应结果
      */
-    Map<String, Object> submitMessageFeedback(String agentId, String messageId, Map<String, Object> requestBody);
+    Map<String, Object> stopGenerating(String agentId, String taskId, Map<String, Object> requestBody);
     
     /**
      * 获取消息建议
@@ -59,15 +63,15 @@ public interface LLMService {
     Map<String, Object> getMessageSuggestions(String agentId, String messageId, String user);
     
     /**
-     * 获取消息列表
-     * 
+     * 获取消息列表，流式解析Dify的响应并写出，过滤无回答或出错的消息、按时间排序并补充work_flow_run_id
+     *
      * @param agentId 智能体ID
-     * @param user 用户ID
+     * @param user 用户标识
      * @param conversationId 对话ID
-     * @param limit 限制数量
-     * @return 消息列表
+     * @param limit 返回条数
+     * @param response 客户端响应
      */
-    Map<String, Object> getMessages(String agentId, String user, String conversationId, Integer limit);
+    void proxyMessages(String agentId, String user, String conversationId, Integer limit, HttpServletResponse response);
 
     /**
      * 获取对话列表
@@ -82,24 +86,50 @@ public interface LLMService {
     Map<String, Object> getConversations(String agentId, String user, String lastId, Integer limit, String keyword);
     
     /**
-     * 删除对话
-     * 
+     * 获取对话列表，直接转发Dify的响应字节；指定keyword时按名称筛选后写出
+     *
+     * @param agentId 智能体ID
+     * @param user 用户标识
+     * @param lastId 最后一条记录ID
+     * @param limit 返回条数
+     * @param keyword 名称关键字
+     * @param response 客户端响应
+     */
+    void proxyConversations(String agentId, String user, String lastId, Integer limit, String keyword,
+                            HttpServletResponse response);
+    
+    /**
+     * 删除对话，直接转发Dify的响应字节
+     *
      * @param agentId 智能体ID
      * @param conversationId 对话ID
      * @param requestBody 请求体
-     * @return 响应结果
+     * @param response 客户端响应
      */
-    Map<String, Object> deleteConversation(String agentId, String conversationId, Map<String, Object> requestBody);
+    void proxyDeleteConversation(String agentId, String conversationId, Map<String, Object> requestBody,
+                                 HttpServletResponse response);
     
     /**
-     * 重命名对话
-     * 
+     * 重命名对话，直接转发Dify的响应字节
+     *
      * @param agentId 智能体ID
      * @param conversationId 对话ID
      * @param requestBody 请求体
-     * @return 响应结果
+     * @param response 客户端响应
+     */
+    void proxyRenameConversation(String agentId, String conversationId, Map<String, Object> requestBody,
+                                 HttpServletResponse response);
+    
+    /**
+     * 提交消息反馈，直接转发Dify的响应字节
+     *
+     * @param agentId 智能体ID
+     * @param messageId 消息ID
+     * @param requestBody 请求体
+     * @param response 客户端响应
      */
-    Map<String, Object> renameConversation(String agentId, String conversationId, Map<String, Object> requestBody);
+    void proxyMessageFeedback(String agentId, String messageId, Map<String, Object> requestBody,
+                              HttpServletResponse response);
     
     /**
      * 语音转文本
@@ -125,7 +155,7 @@ public interface LLMService {
      * @param agentId 智能体ID
      * @return 应用信息
      */
-    Map<String, Object> getAppInfo(String agentId);
+    AppResponseDTO getAppInfo(String agentId);
     
     /**
      * 获取应用参数信息
@@ -133,7 +163,7 @@ public interface LLMService {
      * @param agentId 智能体ID
      * @return 参数信息
      */
-    Map<String, Object> getParameters(String agentId);
+    AppResponseDTO getParameters(String agentId);
     
     /**
      * 获取应用元数据
@@ -141,7 +171,22 @@ public interface LLMService {
      * @param agentId 智能体ID
      * @return 元数据信息
      */
-    Map<String, Object> getMeta(String agentId);
+    AppResponseDTO getMeta(String agentId);
+    
+    /**
+     * 获取智能体图标
+     *
+     * @param agentId 智能体ID，为空时返回默认图标
+     * @return 图标
+     */
+    AgentIconDTO getIcon(String agentId);
+    
+    /**
+     * 使应用静态信息缓存失效，应用在Dify重新发布后调用
+     *
+     * @param agentId 智能体ID，为空时失效全部缓存
+     */
+    void evictAppCache(String agentId);
     
     /**
      * 上传文件
@@ -2,7 +2,10 @@ package com.diit.ds.chat.service.impl;
 
 import com.diit.ds.chat.adapter.LLMAdapter;
 import com.diit.ds.chat.adapter.impl.DifyAdapter;
+import com.diit.ds.chat.domain.dto.AgentIconDTO;
+import com.diit.ds.chat.domain.dto.AppResponseDTO;
 import com.diit.ds.chat.service.LLMService;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -46,21 +49,21 @@ public class LLMServiceImpl implements LLMService {
     }
     
     @Override
-    public Map<String, Object> stopGenerating(String agentId, String taskId, Map<String, Object> requestBody) {
+    public boolean resumeStreamingResponse(String taskId, Long lastEventId, String user, SseEmitter emitter) {
         // 根据配置选择适当的适配器
         LLMAdapter adapter = getAdapter();
         
         // 调用适配器处理请求
-        return adapter.stopGenerating(agentId, taskId, requestBody);
+        return adapter.resumeStreamingResponse(taskId, lastEventId, user, emitter);
     }
     
     @Override
-    public Map<String, Object> submitMessageFeedback(String agentId, String messageId, Map<String, Object> requestBody) {
+    public Map<String, Object> stopGenerating(String agentId, String taskId, Map<String, Object> requestBody) {
         // 根据配置选择适当的适配器
         LLMAdapter adapter = getAdapter();
         
         // 调用适配器处理请求
-        return adapter.submitMessageFeedback(agentId, messageId, requestBody);
+        return adapter.stopGenerating(agentId, taskId, requestBody);
     }
     
     @Override
@@ -73,39 +76,42 @@ public class LLMServiceImpl implements LLMService {
     }
     
     @Override
-    public Map<String, Object> getMessages(String agentId, String user, String conversationId, Integer limit) {
+    public Map<String, Object> getConversations(String agentId, String user, String lastId, Integer limit, String keyword) {
         // 根据配置选择适当的适配器
         LLMAdapter adapter = getAdapter();
         
         // 调用适配器处理请求
-        return adapter.getMessages(agentId, user, conversationId, limit);
+        return adapter.getConversations(agentId, user, lastId, limit, keyword);
     }
     
     @Override
-    public Map<String, Object> getConversations(String agentId, String user, String lastId, Integer limit, String keyword) {
-        // 根据配置选择适当的适配器
-        LLMAdapter adapter = getAdapter();
-        
-        // 调用适配器处理请求
-        return adapter.getConversations(agentId, user, lastId, limit, keyword);
+    public void proxyMessages(String agentId, String user, String conversationId, Integer limit,
+                              HttpServletResponse response) {
+        getAdapter().proxyMessages(agentId, user, conversationId, limit, response);
     }
     
     @Override
-    public Map<String, Object> deleteConversation(String agentId, String conversationId, Map<String, Object> requestBody) {
-        // 根据配置选择适当的适配器
-        LLMAdapter adapter = getAdapter();
-        
-        // 调用适配器处理请求
-        return adapter.deleteConversation(agentId, conversationId, requestBody);
+    public void proxyConversations(String agentId, String user, String lastId, Integer limit, String keyword,
+                                   HttpServletResponse response) {
+        getAdapter().proxyConversations(agentId, user, lastId, limit, keyword, response);
     }
     
     @Override
-    public Map<String, Object> renameConversation(String agentId, String conversationId, Map<String, Object> requestBody) {
-        // 根据配置选择适当的适配器
-        LLMAdapter adapter = getAdapter();
-        
-        // 调用适配器处理请求
-        return adapter.renameConversation(agentId, conversationId, requestBody);
+    public void proxyDeleteConversation(String agentId, String conversationId, Map<String, Object> requestBody,
+                                        HttpServletResponse response) {
+        getAdapter().proxyDeleteConversation(agentId, conversationId, requestBody, response);
+    }
+    
+    @Override
+    public void proxyRenameConversation(String agentId, String conversationId, Map<String, Object> requestBody,
+                                        HttpServletResponse response) {
+        getAdapter().proxyRenameConversation(agentId, conversationId, requestBody, response);
+    }
+    
+    @Override
+    public void proxyMessageFeedback(String agentId, String messageId, Map<String, Object> requestBody,
+                                     HttpServletResponse response) {
+        getAdapter().proxyMessageFeedback(agentId, messageId, requestBody, response);
     }
     
     @Override
@@ -127,7 +133,7 @@ public class LLMServiceImpl implements LLMService {
     }
     
     @Override
-    public Map<String, Object> getAppInfo(String agentId) {
+    public AppResponseDTO getAppInfo(String agentId) {
         // 根据配置选择适当的适配器
         LLMAdapter adapter = getAdapter();
         
@@ -136,7 +142,7 @@ public class LLMServiceImpl implements LLMService {
     }
     
     @Override
-    public Map<String, Object> getParameters(String agentId) {
+    public AppResponseDTO getParameters(String agentId) {
         // 根据配置选择适当的适配器
         LLMAdapter adapter = getAdapter();
         
@@ -145,10 +151,20 @@ public class LLMServiceImpl implements LLMService {
     }
     
     @Override
-    public Map<String, Object> getMeta(String agentId) {
+    public AppResponseDTO getMeta(String agentId) {
         return getAdapter().getMeta(agentId);
     }
     
+    @Override
+    public AgentIconDTO getIcon(String agentId) {
+        return getAdapter().getIcon(agentId);
+    }
+    
+    @Override
+    public void evictAppCache(String agentId) {
+        getAdapter().evictAppCache(agentId);
+    }
+    
     @Override
     public Map<String, Object> uploadFile(String agentId, MultipartFile file, String user) {
         return getAdapter().uploadFile(agentId, file, user);
@@ -1,31 +1,89 @@
 package com.diit.ds.common.config;
 
+import com.diit.ds.common.context.UserContext;
 import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.autoconfigure.thread.Threading;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
 import org.springframework.stereotype.Component;
 
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+@Slf4j
 @Configuration
 public class ThreadPoolConfig {
 
+    /**
+     * 共用线程池
+     *
+     * spring.threads.virtual.enabled开启且运行在JDK 21及以上时，每个任务使用一个虚拟线程，
+     * 阻塞IO不占用平台线程，不再限制线程数和排队；否则使用固定大小的平台线程池
+     */
     @Bean
-    public ExecutorService executorService(ThreadPoolProperties properties) {
-        return new ThreadPoolExecutor(
+    public ExecutorService executorService(ThreadPoolProperties properties, Environment environment) {
+        if (Threading.VIRTUAL.isActive(environment)) {
+            log.info("共用线程池使用虚拟线程");
+            ThreadFactory virtualThreadFactory = new VirtualThreadTaskExecutor("executor-").getVirtualThreadFactory();
+            return new UserContextThreadPoolExecutor(
+                    0,
+                    Integer.MAX_VALUE,
+                    0,
+                    TimeUnit.SECONDS,
+                    new SynchronousQueue<>(),
+                    virtualThreadFactory,
+                    new ThreadPoolExecutor.AbortPolicy()
+            );
+        }
+
+        return new UserContextThreadPoolExecutor(
                 properties.getCorePoolSize(),
                 properties.getMaxPoolSize(),
                 properties.getKeepAliveTime(),
                 TimeUnit.SECONDS,
                 new LinkedBlockingQueue<>(properties.getQueueCapacity()),
+                Executors.defaultThreadFactory(),
                 new ThreadPoolExecutor.CallerRunsPolicy()
         );
     }
 
+    /**
+     * @Async等Spring任务执行器同样传递用户上下文
+     */
+    @Bean
+    public TaskDecorator userContextTaskDecorator() {
+        return UserContext::wrap;
+    }
+
+    /**
+     * 提交任务时捕获提交线程的用户上下文，在执行线程中恢复
+     */
+    private static class UserContextThreadPoolExecutor extends ThreadPoolExecutor {
+
+        UserContextThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+                                      BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory,
+                                      RejectedExecutionHandler handler) {
+            super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            super.execute(UserContext.wrap(command));
+        }
+    }
+
     @Data
     @Component
     @ConfigurationProperties(prefix = "thread-pool")
@@ -50,4 +108,4 @@ public class ThreadPoolConfig {
          */
         private int queueCapacity = 100;
     }
-} 
\ No newline at end of file
+} 
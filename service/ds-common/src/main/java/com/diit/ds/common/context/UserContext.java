@@ -121,6 +121,25 @@ public class UserContext {
         return new HashMap<>(CONTEXT.get());
     }
 
+    /**
+     * 包装异步任务，任务在其他线程执行时使用提交时的用户上下文，执行完毕后恢复该线程原有的上下文
+     *
+     * @param task 异步任务
+     * @return 包装后的任务
+     */
+    public Runnable wrap(Runnable task) {
+        Map<String, Object> captured = getAttributes();
+        return () -> {
+            Map<String, Object> previous = CONTEXT.get();
+            CONTEXT.set(new HashMap<>(captured));
+            try {
+                task.run();
+            } finally {
+                CONTEXT.set(previous);
+            }
+        };
+    }
+
     /**
      * 清除当前线程的上下文信息
      * 应在请求处理完成后调用，防止内存泄漏
@@ -0,0 +1,14 @@
+package com.diit.ds.common.exception;
+
+/**
+ * 外部服务不可用异常：熔断器打开或并发已满时快速失败
+ */
+public class BackendUnavailableException extends RuntimeException {
+    public BackendUnavailableException(String message) {
+        super(message);
+    }
+
+    public BackendUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,65 @@
+package com.diit.ds.common.resilience;
+
+import org.apache.hc.core5.concurrent.Cancellable;
+
+import java.util.function.Supplier;
+
+/**
+ * 可中止的外部请求
+ *
+ * 在{@link #run}中通过RestTemplate发出的请求由请求工厂登记到当前线程的句柄上，
+ * 其他线程调用{@link #abort()}时直接关闭该请求的连接，阻塞在读取响应上的调用立即返回；
+ * 仅中断线程（Future.cancel(true)）不能打断HttpClient的阻塞读取
+ */
+public class AbortableRequest {
+
+    private static final ThreadLocal<AbortableRequest> CURRENT = new ThreadLocal<>();
+
+    private volatile Cancellable request;
+
+    private volatile boolean aborted;
+
+    /**
+     * 在当前线程执行调用，调用中发出的HTTP请求可被{@link #abort()}中止
+     */
+    public <T> T run(Supplier<T> call) {
+        CURRENT.set(this);
+        try {
+            return call.get();
+        } finally {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * 中止正在执行的请求；请求尚未发出时，发出后立即中止
+     */
+    public void abort() {
+        aborted = true;
+        Cancellable current = request;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    /**
+     * 当前线程的请求是否已被主动中止，中止引起的IO异常不计入熔断失败
+     */
+    public static boolean isCurrentAborted() {
+        AbortableRequest current = CURRENT.get();
+        return current != null && current.aborted;
+    }
+
+    /**
+     * 由请求工厂在创建HTTP请求时调用，将请求登记到当前线程的句柄上
+     */
+    public static void bind(Object httpRequest) {
+        AbortableRequest current = CURRENT.get();
+        if (current != null && httpRequest instanceof Cancellable cancellable) {
+            current.request = cancellable;
+            if (current.aborted) {
+                cancellable.cancel();
+            }
+        }
+    }
+}
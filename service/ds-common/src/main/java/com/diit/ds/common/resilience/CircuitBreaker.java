@@ -0,0 +1,127 @@
+package com.diit.ds.common.resilience;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 基于请求计数滑动窗口的熔断器
+ *
+ * 关闭状态下统计最近slidingWindowSize次请求的失败率，超过阈值后打开；
+ * 打开状态下直接拒绝请求，openDuration后进入半开状态；
+ * 半开状态下放行halfOpenCalls个试探请求，全部成功则关闭，任一失败则重新打开
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final ResilienceProperties.Backend config;
+
+    private final boolean[] window;
+    private int windowIndex;
+    private int windowCount;
+    private int windowFailures;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int halfOpenInFlight;
+    private int halfOpenSuccesses;
+
+    public CircuitBreaker(String name, ResilienceProperties.Backend config) {
+        this.name = name;
+        this.config = config;
+        this.window = new boolean[Math.max(1, config.getSlidingWindowSize())];
+    }
+
+    /**
+     * 请求前调用，返回false表示熔断器拒绝本次请求
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < config.getOpenDuration().toMillis()) {
+                return false;
+            }
+            transitionTo(State.HALF_OPEN);
+        }
+
+        if (state == State.HALF_OPEN) {
+            if (halfOpenInFlight + halfOpenSuccesses >= config.getHalfOpenCalls()) {
+                return false;
+            }
+            halfOpenInFlight++;
+        }
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            halfOpenInFlight = Math.max(0, halfOpenInFlight - 1);
+            halfOpenSuccesses++;
+            if (halfOpenSuccesses >= config.getHalfOpenCalls()) {
+                transitionTo(State.CLOSED);
+            }
+            return;
+        }
+        record(false);
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            transitionTo(State.OPEN);
+            return;
+        }
+
+        record(true);
+        if (state == State.CLOSED && windowCount >= config.getMinimumCalls()
+                && windowFailures * 100 >= config.getFailureRateThreshold() * windowCount) {
+            transitionTo(State.OPEN);
+        }
+    }
+
+    /**
+     * 已通过熔断器但未实际发出的请求（如并发隔离拒绝），归还半开状态的试探名额
+     */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN) {
+            halfOpenInFlight = Math.max(0, halfOpenInFlight - 1);
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void record(boolean failure) {
+        if (windowCount == window.length) {
+            if (window[windowIndex]) {
+                windowFailures--;
+            }
+        } else {
+            windowCount++;
+        }
+        window[windowIndex] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        windowIndex = (windowIndex + 1) % window.length;
+    }
+
+    private void transitionTo(State newState) {
+        if (newState == State.OPEN) {
+            openedAt = System.currentTimeMillis();
+            log.warn("外部服务[{}]熔断器打开，最近{}次请求失败{}次，{}秒内快速失败",
+                    name, windowCount, windowFailures, config.getOpenDuration().toSeconds());
+        } else if (newState == State.CLOSED) {
+            log.info("外部服务[{}]熔断器关闭，恢复正常调用", name);
+        }
+
+        state = newState;
+        halfOpenInFlight = 0;
+        halfOpenSuccesses = 0;
+        windowIndex = 0;
+        windowCount = 0;
+        windowFailures = 0;
+    }
+}
@@ -0,0 +1,246 @@
+package com.diit.ds.common.resilience;
+
+import com.diit.ds.common.exception.BackendUnavailableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 外部服务调用的隔离与熔断
+ *
+ * 按请求URL归属到配置的外部服务（RAGFlow、DIOS、H3C、Dify），每个服务独立的并发隔离和熔断器，
+ * 按请求路径区分操作类型并给出各自的超时时间；熔断打开或并发已满时抛出
+ * {@link BackendUnavailableException}快速失败，由调用方走降级逻辑
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class OutboundResilience implements InitializingBean {
+
+    private static final String DEFAULT_OPERATION = "default";
+
+    private final ResilienceProperties resilienceProperties;
+    private final MeterRegistry meterRegistry;
+
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+    private final Map<String, Backend> backends = new LinkedHashMap<>();
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!resilienceProperties.isEnabled()) {
+            log.info("外部服务隔离与熔断未开启");
+            return;
+        }
+
+        resilienceProperties.getBackends().forEach((name, config) -> {
+            Backend backend = new Backend(name, config);
+            backends.put(name, backend);
+
+            Gauge.builder("outbound.bulkhead.available", backend.getBulkhead(), Semaphore::availablePermits)
+                    .tag("backend", name)
+                    .register(meterRegistry);
+            Gauge.builder("outbound.circuit.state", backend.getCircuitBreaker(), breaker -> breaker.getState().ordinal())
+                    .tag("backend", name)
+                    .description("0:关闭 1:打开 2:半开")
+                    .register(meterRegistry);
+        });
+        log.info("外部服务隔离与熔断已开启: {}", backends.keySet());
+    }
+
+    /**
+     * 根据请求URL匹配外部服务和操作类型
+     *
+     * @param uri 请求URL
+     * @return 匹配结果，不属于任何已配置服务时返回null
+     */
+    public Route route(URI uri) {
+        String url = uri.toString();
+        Backend matched = null;
+        int matchedLength = -1;
+        for (Backend backend : backends.values()) {
+            for (String baseUrl : backend.getConfig().getBaseUrls()) {
+                if (baseUrl != null && !baseUrl.isBlank() && url.startsWith(baseUrl) && baseUrl.length() > matchedLength) {
+                    matched = backend;
+                    matchedLength = baseUrl.length();
+                }
+            }
+        }
+        if (matched == null) {
+            return null;
+        }
+
+        String path = uri.getPath() == null ? "" : uri.getPath();
+        for (ResilienceProperties.Operation operation : matched.getConfig().getOperations()) {
+            if (operation.getPattern() != null && pathMatcher.match(operation.getPattern(), path)) {
+                return new Route(matched, operation.getName(),
+                        operation.getTimeout() != null ? operation.getTimeout() : matched.getConfig().getDefaultTimeout());
+            }
+        }
+        return new Route(matched, DEFAULT_OPERATION, matched.getConfig().getDefaultTimeout());
+    }
+
+    /**
+     * 按服务名称和操作类型获取调用许可，用于不经过RestTemplate的调用（如流式响应）
+     */
+    public Permit acquire(String backendName, String operation) {
+        Backend backend = backends.get(backendName);
+        if (backend == null) {
+            return Permit.NOOP;
+        }
+        return acquire(new Route(backend, operation, backend.getConfig().getDefaultTimeout()));
+    }
+
+    /**
+     * 获取调用许可：先检查熔断器，再获取并发许可，任一不满足时快速失败
+     *
+     * @throws BackendUnavailableException 熔断打开或并发已满
+     */
+    public Permit acquire(Route route) {
+        Backend backend = route.getBackend();
+        String operation = route.getOperation();
+
+        if (!backend.getCircuitBreaker().tryAcquire()) {
+            count(backend.getName(), operation, "rejected_open");
+            throw new BackendUnavailableException("外部服务[" + backend.getName() + "]熔断中，暂时不可用");
+        }
+
+        boolean acquired;
+        try {
+            acquired = backend.getBulkhead().tryAcquire(backend.getConfig().getMaxWait().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            backend.getCircuitBreaker().onIgnored();
+            count(backend.getName(), operation, "rejected_bulkhead");
+            throw new BackendUnavailableException("外部服务[" + backend.getName() + "]并发请求已满，暂时不可用");
+        }
+
+        return new Permit(this, backend, operation);
+    }
+
+    private void count(String backend, String operation, String outcome) {
+        Counter.builder("outbound.calls")
+                .tag("backend", backend)
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * 请求归属的外部服务、操作类型和超时时间
+     */
+    @Getter
+    @RequiredArgsConstructor
+    public static class Route {
+        private final Backend backend;
+        private final String operation;
+        private final Duration timeout;
+
+        public Duration getConnectTimeout() {
+            return backend.getConfig().getConnectTimeout();
+        }
+    }
+
+    /**
+     * 调用许可，请求结束时必须调用success、failure或close之一释放
+     */
+    public static class Permit implements AutoCloseable {
+
+        public static final Permit NOOP = new Permit(null, null, null);
+
+        private final OutboundResilience owner;
+        private final Backend backend;
+        private final String operation;
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Permit(OutboundResilience owner, Backend backend, String operation) {
+            this.owner = owner;
+            this.backend = backend;
+            this.operation = operation;
+        }
+
+        /**
+         * 请求成功（包括4xx等调用方错误，不计入熔断失败率）
+         */
+        public void success(String outcome) {
+            release(true, outcome);
+        }
+
+        public void success() {
+            success("success");
+        }
+
+        /**
+         * 请求失败（连接失败、超时、5xx），计入熔断失败率
+         */
+        public void failure() {
+            release(false, "failure");
+        }
+
+        /**
+         * 未标记结果就关闭时按成功处理
+         */
+        @Override
+        public void close() {
+            success();
+        }
+
+        private void release(boolean succeeded, String outcome) {
+            if (backend == null || !released.compareAndSet(false, true)) {
+                return;
+            }
+
+            backend.getBulkhead().release();
+            if (succeeded) {
+                backend.getCircuitBreaker().onSuccess();
+            } else {
+                backend.getCircuitBreaker().onFailure();
+            }
+
+            owner.count(backend.getName(), operation, outcome);
+            Timer.builder("outbound.latency")
+                    .tag("backend", backend.getName())
+                    .tag("operation", operation)
+                    .register(owner.meterRegistry)
+                    .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 单个外部服务的并发隔离和熔断器
+     */
+    @Getter
+    public static class Backend {
+        private final String name;
+        private final ResilienceProperties.Backend config;
+        private final Semaphore bulkhead;
+        private final CircuitBreaker circuitBreaker;
+
+        Backend(String name, ResilienceProperties.Backend config) {
+            this.name = name;
+            this.config = config;
+            this.bulkhead = new Semaphore(Math.max(1, config.getMaxConcurrentCalls()));
+            this.circuitBreaker = new CircuitBreaker(name, config);
+        }
+    }
+}
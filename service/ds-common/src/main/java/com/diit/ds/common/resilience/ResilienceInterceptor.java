@@ -0,0 +1,122 @@
+package com.diit.ds.common.resilience;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * RestTemplate拦截器：对发往已配置外部服务的请求执行并发隔离和熔断
+ *
+ * 并发许可在响应关闭（响应体读取完毕）时才释放，下载等大响应也在隔离范围内；
+ * 读取超时由RestTemplate的请求工厂按{@link OutboundResilience#route}给出的超时时间设置
+ */
+@Component
+@RequiredArgsConstructor
+public class ResilienceInterceptor implements ClientHttpRequestInterceptor {
+
+    private final OutboundResilience outboundResilience;
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        OutboundResilience.Route route = outboundResilience.route(request.getURI());
+        if (route == null) {
+            return execution.execute(request, body);
+        }
+
+        OutboundResilience.Permit permit = outboundResilience.acquire(route);
+        ClientHttpResponse response;
+        try {
+            response = execution.execute(request, body);
+        } catch (IOException | RuntimeException e) {
+            if (AbortableRequest.isCurrentAborted()) {
+                permit.success("aborted");
+            } else {
+                permit.failure();
+            }
+            throw e;
+        }
+        return new GuardedResponse(response, permit);
+    }
+
+    /**
+     * 响应关闭时按状态码记录结果并释放许可：5xx计为失败，4xx为调用方错误不计入熔断
+     */
+    @RequiredArgsConstructor
+    private static class GuardedResponse implements ClientHttpResponse {
+        private final ClientHttpResponse delegate;
+        private final OutboundResilience.Permit permit;
+
+        // 读取响应体时发生IO异常（如读取超时）
+        private volatile boolean bodyFailed;
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return delegate.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return delegate.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return new FilterInputStream(delegate.getBody()) {
+                @Override
+                public int read() throws IOException {
+                    try {
+                        return super.read();
+                    } catch (IOException e) {
+                        bodyFailed = true;
+                        throw e;
+                    }
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    try {
+                        return super.read(b, off, len);
+                    } catch (IOException e) {
+                        bodyFailed = true;
+                        throw e;
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            try {
+                HttpStatusCode status = delegate.getStatusCode();
+                if (bodyFailed && AbortableRequest.isCurrentAborted()) {
+                    // 调用方主动中止（如对冲中落后的请求），不是服务故障
+                    permit.success("aborted");
+                } else if (bodyFailed || status.is5xxServerError()) {
+                    permit.failure();
+                } else if (status.is4xxClientError()) {
+                    permit.success("client_error");
+                } else {
+                    permit.success();
+                }
+            } catch (IOException e) {
+                permit.failure();
+            } finally {
+                delegate.close();
+            }
+        }
+    }
+}
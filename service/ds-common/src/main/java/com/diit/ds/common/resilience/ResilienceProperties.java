@@ -0,0 +1,106 @@
+package com.diit.ds.common.resilience;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 外部服务调用的隔离与熔断配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "resilience")
+public class ResilienceProperties {
+
+    /**
+     * 是否开启
+     */
+    private boolean enabled = true;
+
+    /**
+     * 各外部服务的配置，键为服务名称（ragflow、dios、h3c、dify）
+     */
+    private Map<String, Backend> backends = new LinkedHashMap<>();
+
+    @Data
+    public static class Backend {
+        /**
+         * 服务地址，请求URL以其中之一开头时归属该服务
+         */
+        private List<String> baseUrls = new ArrayList<>();
+
+        /**
+         * 并发隔离：同时进行的最大请求数
+         */
+        private int maxConcurrentCalls = 50;
+
+        /**
+         * 并发已满时的最长等待时间，超过后快速失败
+         */
+        private Duration maxWait = Duration.ZERO;
+
+        /**
+         * 失败率达到该百分比时打开熔断器
+         */
+        private int failureRateThreshold = 50;
+
+        /**
+         * 计算失败率的最近请求数
+         */
+        private int slidingWindowSize = 20;
+
+        /**
+         * 计算失败率所需的最少请求数
+         */
+        private int minimumCalls = 10;
+
+        /**
+         * 熔断器打开后的持续时间，之后进入半开状态试探
+         */
+        private Duration openDuration = Duration.ofSeconds(30);
+
+        /**
+         * 半开状态允许的试探请求数，全部成功后关闭熔断器
+         */
+        private int halfOpenCalls = 3;
+
+        /**
+         * 连接超时
+         */
+        private Duration connectTimeout = Duration.ofSeconds(5);
+
+        /**
+         * 未匹配到操作类型时的读取超时
+         */
+        private Duration defaultTimeout = Duration.ofSeconds(30);
+
+        /**
+         * 按请求路径区分的操作类型及其读取超时
+         */
+        private List<Operation> operations = new ArrayList<>();
+    }
+
+    @Data
+    public static class Operation {
+        /**
+         * 操作类型名称，用于指标标签
+         */
+        private String name;
+
+        /**
+         * 请求路径的Ant风格匹配模式
+         */
+        private String pattern;
+
+        /**
+         * 读取超时，0表示不限制（流式响应）
+         */
+        private Duration timeout;
+    }
+}
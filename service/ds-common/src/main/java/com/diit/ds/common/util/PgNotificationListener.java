@@ -0,0 +1,148 @@
+package com.diit.ds.common.util;
+
+import com.baomidou.dynamic.datasource.DynamicRoutingDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * PostgreSQL LISTEN/NOTIFY监听线程，用于在各实例间同步本地缓存
+ *
+ * 占用primary数据源的一个连接执行LISTEN：通知内容非空时交给handler按ID失效，内容为空时调用reload全量重新加载。
+ * 连接断开后按间隔重连，断开期间可能丢失通知，重新连接后调用reload
+ */
+@Slf4j
+public class PgNotificationListener {
+
+    private static final String DATASOURCE_NAME = "primary";
+
+    private final DataSource dataSource;
+    private final String channel;
+    private final String description;
+    private final Consumer<String> handler;
+    private final Runnable reload;
+    private final int pollTimeoutMs;
+    private final long retryIntervalMs;
+
+    private Thread worker;
+
+    private volatile boolean running;
+
+    /**
+     * @param dataSource      数据源，为动态数据源时使用其中的primary数据源
+     * @param channel         监听的通道名
+     * @param description     监听内容的描述，用于线程名和日志
+     * @param handler         处理非空通知内容（如失效对应ID的缓存）
+     * @param reload          空通知和重新连接时全量重新加载
+     * @param pollTimeoutMs   每次等待通知的超时时间（毫秒）
+     * @param retryIntervalMs 连接失败后的重试间隔（毫秒）
+     */
+    public PgNotificationListener(DataSource dataSource, String channel, String description,
+                                  Consumer<String> handler, Runnable reload, int pollTimeoutMs, long retryIntervalMs) {
+        this.dataSource = dataSource;
+        this.channel = channel;
+        this.description = description;
+        this.handler = handler;
+        this.reload = reload;
+        this.pollTimeoutMs = pollTimeoutMs;
+        this.retryIntervalMs = retryIntervalMs;
+    }
+
+    public synchronized void start() {
+        if (worker != null) {
+            return;
+        }
+
+        running = true;
+        worker = new Thread(this::runWorker, channel + "-listener");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public synchronized void stop() throws InterruptedException {
+        if (worker == null) {
+            return;
+        }
+
+        running = false;
+        worker.interrupt();
+        worker.join(TimeUnit.SECONDS.toMillis(10));
+        worker = null;
+    }
+
+    private void runWorker() {
+        boolean reconnect = false;
+        while (running) {
+            try (Connection connection = primaryDataSource().getConnection()) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + channel);
+                }
+                log.info("开始监听{}变化，通道: {}", description, channel);
+
+                if (reconnect) {
+                    // 断开期间可能有通知丢失，全量重新加载
+                    reload.run();
+                }
+
+                try {
+                    PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                    while (running) {
+                        PGNotification[] notifications = pgConnection.getNotifications(pollTimeoutMs);
+                        if (notifications != null) {
+                            for (PGNotification notification : notifications) {
+                                handle(notification.getParameter());
+                            }
+                        }
+                    }
+                } finally {
+                    unlisten(connection);
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    break;
+                }
+                log.error("监听{}变化失败，{}毫秒后重试: {}", description, retryIntervalMs, e.getMessage());
+                reconnect = true;
+                try {
+                    TimeUnit.MILLISECONDS.sleep(retryIntervalMs);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+        log.info("{}变化监听已停止", description);
+    }
+
+    /**
+     * 连接归还连接池前取消监听，避免池中连接继续接收通知
+     */
+    private void unlisten(Connection connection) {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("UNLISTEN " + channel);
+        } catch (SQLException e) {
+            log.debug("取消监听失败: {}", e.getMessage());
+        }
+    }
+
+    private void handle(String payload) {
+        if (payload == null || payload.isEmpty()) {
+            reload.run();
+        } else {
+            handler.accept(payload);
+        }
+    }
+
+    private DataSource primaryDataSource() {
+        if (dataSource instanceof DynamicRoutingDataSource dynamicRoutingDataSource) {
+            return dynamicRoutingDataSource.getDataSource(DATASOURCE_NAME);
+        }
+        return dataSource;
+    }
+}
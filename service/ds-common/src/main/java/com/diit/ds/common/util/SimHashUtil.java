@@ -0,0 +1,101 @@
+package com.diit.ds.common.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SimHash工具类
+ * 用于计算文本的64位局部敏感指纹，内容相近的文本指纹的汉明距离也较小，可用于近似重复检测
+ */
+public class SimHashUtil {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private SimHashUtil() {
+    }
+
+    /**
+     * 计算已分词文本的指纹，分词结果以空白分隔（如RAGFlow的content_ltks）
+     *
+     * @param tokenizedText 以空白分隔的分词结果
+     * @return 64位指纹
+     */
+    public static long ofTokens(String tokenizedText) {
+        Map<String, Integer> features = new HashMap<>();
+        if (tokenizedText != null) {
+            for (String token : tokenizedText.trim().split("\\s+")) {
+                if (!token.isEmpty()) {
+                    features.merge(token, 1, Integer::sum);
+                }
+            }
+        }
+        return fingerprint(features);
+    }
+
+    /**
+     * 计算原始文本的指纹，忽略空白后以相邻两个字符作为特征，适用于未分词的中文文本
+     *
+     * @param text 原始文本
+     * @return 64位指纹
+     */
+    public static long ofText(String text) {
+        Map<String, Integer> features = new HashMap<>();
+        if (text != null) {
+            String compact = text.replaceAll("\\s+", "");
+            if (compact.length() == 1) {
+                features.put(compact, 1);
+            }
+            for (int i = 0; i + 2 <= compact.length(); i++) {
+                features.merge(compact.substring(i, i + 2), 1, Integer::sum);
+            }
+        }
+        return fingerprint(features);
+    }
+
+    /**
+     * 两个指纹的汉明距离
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /**
+     * 按特征出现次数加权，逐位累加特征哈希后取符号得到指纹
+     */
+    private static long fingerprint(Map<String, Integer> features) {
+        int[] vector = new int[64];
+        features.forEach((feature, weight) -> {
+            long hash = hash64(feature);
+            for (int bit = 0; bit < 64; bit++) {
+                vector[bit] += ((hash >>> bit) & 1L) == 1L ? weight : -weight;
+            }
+        });
+
+        long fingerprint = 0L;
+        for (int bit = 0; bit < 64; bit++) {
+            if (vector[bit] > 0) {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * FNV-1a哈希，再经过一次混合使各位分布更均匀
+     */
+    private static long hash64(String feature) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < feature.length(); i++) {
+            hash ^= feature.charAt(i);
+            hash *= FNV_PRIME;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,30 @@
+package com.diit.ds.domain.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.diit.ds.domain.pojo.entity.MessageWorkflowRun;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+* @description 针对表【message_workflow_run(Dify消息与工作流运行ID对应关系)】的数据库操作Mapper
+* @Entity com.diit.ds.domain.pojo.entity.MessageWorkflowRun
+*/
+public interface MessageWorkflowRunMapper extends BaseMapper<MessageWorkflowRun> {
+
+    /**
+     * 批量写入，消息ID已存在时忽略
+     *
+     * @param list 对应关系
+     * @return 写入的行数
+     */
+    @Insert("<script>" +
+            "INSERT INTO message_workflow_run (message_id, workflow_run_id, create_time) VALUES " +
+            "<foreach collection='list' item='item' separator=','>" +
+            "(#{item.messageId}, #{item.workflowRunId}, #{item.createTime})" +
+            "</foreach>" +
+            " ON CONFLICT (message_id) DO NOTHING" +
+            "</script>")
+    int insertIgnore(@Param("list") List<MessageWorkflowRun> list);
+}
@@ -0,0 +1,35 @@
+package com.diit.ds.domain.pojo.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+
+import java.util.Date;
+
+/**
+ * Dify消息与工作流运行ID的对应关系，从流式对话的事件中记录
+ * @TableName message_workflow_run
+ */
+@TableName(value ="message_workflow_run")
+@Data
+public class MessageWorkflowRun {
+    /**
+     * Dify消息ID
+     */
+    @TableId(value = "message_id", type = IdType.INPUT)
+    private String messageId;
+
+    /**
+     * Dify工作流运行ID
+     */
+    @TableField(value = "workflow_run_id")
+    private String workflowRunId;
+
+    /**
+     * 
+     */
+    @TableField(value = "create_time")
+    private Date createTime;
+}
@@ -0,0 +1,180 @@
+package com.diit.ds.rag.cache;
+
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.diit.ds.domain.mapper.AgentKdbMapper;
+import com.diit.ds.domain.pojo.entity.AgentKdb;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 智能体与知识库绑定关系缓存（app_id -> 知识库ID列表）
+ *
+ * 启动时一次性加载agent_kdb全表，智能体检索时直接读取缓存；
+ * agent_kdb表变化时由触发器通知{@link com.diit.ds.rag.task.AgentKdbChangeListener}，各实例按app_id失效。
+ * 失效、全量加载和未命中加载后的写入在同一把锁内按版本号进行，失效之前发起的查询结果不会被写回缓存
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AgentKdbBindingCache implements InitializingBean {
+
+    private final AgentKdbMapper agentKdbMapper;
+
+    private volatile ConcurrentHashMap<String, List<String>> bindings = new ConcurrentHashMap<>();
+
+    // 失效或全量加载时递增，未命中加载期间版本变化则不缓存加载结果
+    private final AtomicLong version = new AtomicLong();
+
+    // 持锁期间查询数据库，使用ReentrantLock而非synchronized，虚拟线程阻塞时不会占住载体线程
+    private final ReentrantLock updateLock = new ReentrantLock();
+
+    @Override
+    public void afterPropertiesSet() {
+        try {
+            reload();
+        } catch (Exception e) {
+            // 启动时数据库不可用不影响应用启动，检索时按app_id单独加载
+            log.error("加载智能体知识库绑定关系失败: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 获取智能体绑定的知识库ID
+     *
+     * @param appId 智能体ID
+     * @return 知识库ID列表，未绑定时返回空列表
+     */
+    public List<String> getKdbIds(String appId) {
+        if (appId == null) {
+            return Collections.emptyList();
+        }
+
+        List<String> kdbIds = bindings.get(appId);
+        if (kdbIds != null) {
+            return kdbIds;
+        }
+
+        // 未命中时单独加载该智能体，未绑定知识库的结果不缓存，以便新绑定立即生效；
+        // 不在computeIfAbsent中查询数据库，避免查询期间占住ConcurrentHashMap的桶锁
+        long loadVersion = version.get();
+        kdbIds = load(appId);
+        if (kdbIds == null) {
+            return Collections.emptyList();
+        }
+
+        updateLock.lock();
+        try {
+            if (version.get() != loadVersion) {
+                // 查询期间有失效或全量加载，本次结果可能已过期，只用于本次检索
+                return kdbIds;
+            }
+            List<String> existing = bindings.putIfAbsent(appId, kdbIds);
+            return existing != null ? existing : kdbIds;
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    /**
+     * 使指定智能体的绑定关系失效，下次检索时重新加载
+     *
+     * @param appId 智能体ID
+     */
+    public void invalidate(String appId) {
+        if (appId == null) {
+            return;
+        }
+
+        updateLock.lock();
+        try {
+            version.incrementAndGet();
+            bindings.remove(appId);
+        } finally {
+            updateLock.unlock();
+        }
+        log.debug("智能体知识库绑定关系已失效: {}", appId);
+    }
+
+    /**
+     * 重新加载全部绑定关系，加载期间的失效等待加载完成后再执行，不会被加载结果覆盖
+     */
+    public void reload() {
+        updateLock.lock();
+        try {
+            version.incrementAndGet();
+            doReload();
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    private void doReload() {
+        List<AgentKdb> rows = agentKdbMapper.selectList(Wrappers.<AgentKdb>lambdaQuery()
+                .select(AgentKdb::getAppId, AgentKdb::getKdbId));
+
+        Map<String, List<String>> grouped = new HashMap<>();
+        for (AgentKdb row : rows) {
+            if (row.getAppId() != null) {
+                grouped.computeIfAbsent(row.getAppId(), k -> new ArrayList<>()).addAll(splitKdbIds(row.getKdbId()));
+            }
+        }
+
+        ConcurrentHashMap<String, List<String>> loaded = new ConcurrentHashMap<>();
+        grouped.forEach((appId, kdbIds) -> {
+            if (!kdbIds.isEmpty()) {
+                loaded.put(appId, Collections.unmodifiableList(kdbIds));
+            }
+        });
+        bindings = loaded;
+        log.info("智能体知识库绑定关系已加载，智能体数: {}, 绑定记录数: {}", loaded.size(), rows.size());
+    }
+
+    /**
+     * 定时兜底全量刷新，防止实例间通知丢失导致的长期不一致
+     */
+    @Scheduled(initialDelayString = "${rag.cache.agent-kdb.refresh-interval-ms:600000}",
+            fixedDelayString = "${rag.cache.agent-kdb.refresh-interval-ms:600000}")
+    public void refresh() {
+        try {
+            reload();
+        } catch (Exception e) {
+            log.error("刷新智能体知识库绑定关系失败: {}", e.getMessage(), e);
+        }
+    }
+
+    private List<String> load(String appId) {
+        List<AgentKdb> rows = agentKdbMapper.selectList(Wrappers.<AgentKdb>lambdaQuery()
+                .select(AgentKdb::getAppId, AgentKdb::getKdbId)
+                .eq(AgentKdb::getAppId, appId));
+
+        List<String> kdbIds = new ArrayList<>();
+        rows.forEach(row -> kdbIds.addAll(splitKdbIds(row.getKdbId())));
+        return kdbIds.isEmpty() ? null : Collections.unmodifiableList(kdbIds);
+    }
+
+    /**
+     * kdb_id字段可能以逗号分隔保存多个知识库ID
+     */
+    private static List<String> splitKdbIds(String kdbId) {
+        if (kdbId == null || kdbId.isBlank()) {
+            return Collections.emptyList();
+        }
+        return Arrays.stream(kdbId.split(","))
+                .map(String::trim)
+                .filter(id -> !id.isEmpty())
+                .toList();
+    }
+}
@@ -0,0 +1,181 @@
+package com.diit.ds.rag.cache;
+
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.diit.ds.domain.mapper.KnowledgeTreeNodeMapper;
+import com.diit.ds.domain.pojo.entity.KnowledgeTreeNode;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 全部知识库ID快照
+ *
+ * 全库检索（selectAll）需要知识树下所有节点的知识库ID，原先每次检索都递归遍历整棵树。
+ * 这里启动时一次查询全部节点并在内存中从根节点展开，之后仅在知识树增删改提交后重建，
+ * 检索时直接读取不可变快照，不再访问数据库
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DatasetIdSnapshot implements InitializingBean {
+
+    private static final String ROOT_PID = "0";
+
+    private final KnowledgeTreeNodeMapper knowledgeTreeNodeMapper;
+
+    // 已请求的版本号，知识树每次变化时递增
+    private final AtomicLong requestedVersion = new AtomicLong();
+
+    private volatile Snapshot snapshot = new Snapshot(-1L, Collections.emptyList());
+
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+
+    @Override
+    public void afterPropertiesSet() {
+        try {
+            rebuild();
+        } catch (Exception e) {
+            // 启动时数据库不可用不影响应用启动，首次读取时再加载
+            log.error("加载全部知识库ID快照失败: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 获取知识树下全部知识库ID
+     *
+     * @return 不可修改的知识库ID列表
+     */
+    public List<String> getDatasetIds() {
+        Snapshot current = snapshot;
+        if (current.getVersion() < 0) {
+            // 启动时加载失败，此处补加载
+            current = rebuild();
+        }
+        return current.getDatasetIds();
+    }
+
+    /**
+     * 当前快照版本号
+     */
+    public long getVersion() {
+        return snapshot.getVersion();
+    }
+
+    /**
+     * 知识树发生变化（节点新增、删除、移动），在当前事务提交后重建快照；无事务时立即重建
+     */
+    public void markChanged() {
+        requestedVersion.incrementAndGet();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    rebuildQuietly();
+                }
+            });
+        } else {
+            rebuildQuietly();
+        }
+    }
+
+    /**
+     * 定时兜底刷新，用于同步其他实例对知识树的修改
+     */
+    @Scheduled(initialDelayString = "${rag.cache.dataset-snapshot.refresh-interval-ms:300000}",
+            fixedDelayString = "${rag.cache.dataset-snapshot.refresh-interval-ms:300000}")
+    public void refresh() {
+        requestedVersion.incrementAndGet();
+        rebuildQuietly();
+    }
+
+    private void rebuildQuietly() {
+        try {
+            rebuild();
+        } catch (Exception e) {
+            log.error("重建全部知识库ID快照失败，继续使用版本[{}]: {}", snapshot.getVersion(), e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 查询全部节点并重建快照，并发重建时只保留版本号最新的结果
+     */
+    private Snapshot rebuild() {
+        // 持锁期间查询数据库，使用ReentrantLock而非synchronized，虚拟线程阻塞时不会占住载体线程
+        rebuildLock.lock();
+        try {
+            long version = requestedVersion.get();
+            if (snapshot.getVersion() >= version) {
+                return snapshot;
+            }
+
+            List<KnowledgeTreeNode> nodes = knowledgeTreeNodeMapper.selectList(Wrappers.<KnowledgeTreeNode>lambdaQuery()
+                    .select(KnowledgeTreeNode::getId, KnowledgeTreeNode::getPid, KnowledgeTreeNode::getKdbId));
+            List<String> datasetIds = collectDatasetIds(nodes);
+
+            snapshot = new Snapshot(version, Collections.unmodifiableList(datasetIds));
+            log.info("全部知识库ID快照已更新，版本: {}, 节点数: {}, 知识库数: {}", version, nodes.size(), datasetIds.size());
+            return snapshot;
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    /**
+     * 从根节点开始展开，只收集挂在知识树上的节点的知识库ID，与递归查询的结果保持一致
+     */
+    private List<String> collectDatasetIds(List<KnowledgeTreeNode> nodes) {
+        Map<String, List<KnowledgeTreeNode>> childrenByPid = new HashMap<>();
+        for (KnowledgeTreeNode node : nodes) {
+            if (node.getPid() != null) {
+                childrenByPid.computeIfAbsent(node.getPid(), k -> new ArrayList<>()).add(node);
+            }
+        }
+
+        List<String> datasetIds = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(ROOT_PID);
+        while (!pending.isEmpty()) {
+            List<KnowledgeTreeNode> children = childrenByPid.getOrDefault(pending.pop(), Collections.emptyList());
+            for (KnowledgeTreeNode child : children) {
+                if (!visited.add(child.getId())) {
+                    continue;
+                }
+                if (child.getKdbId() != null && !child.getKdbId().isEmpty()) {
+                    datasetIds.add(child.getKdbId());
+                }
+                pending.push(child.getId());
+            }
+        }
+        return datasetIds;
+    }
+
+    /**
+     * 不可变的知识库ID快照
+     */
+    @Data
+    @AllArgsConstructor
+    private static class Snapshot {
+        private final long version;
+        private final List<String> datasetIds;
+    }
+}
@@ -0,0 +1,36 @@
+package com.diit.ds.rag.cache;
+
+import com.diit.ds.rag.config.PreviewCacheConfig;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * 预览文件访问拦截器
+ *
+ * 异步预取模式下预览URL先于文件返回，访问时若文件仍在下载则等待下载完成后再交给静态资源处理
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PreviewAwaitInterceptor implements HandlerInterceptor {
+
+    private final PreviewFileCache previewFileCache;
+    private final PreviewCacheConfig previewCacheConfig;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // 预览文件名格式为 documentId_md5hash.extension
+        String uri = request.getRequestURI();
+        String fileName = uri.substring(uri.lastIndexOf('/') + 1);
+        int separatorIndex = fileName.indexOf('_');
+        if (separatorIndex > 0) {
+            String documentId = fileName.substring(0, separatorIndex);
+            previewFileCache.awaitInFlight(documentId, previewCacheConfig.getAwaitTimeout());
+        }
+        return true;
+    }
+}
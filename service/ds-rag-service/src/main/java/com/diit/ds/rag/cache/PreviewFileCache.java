@@ -0,0 +1,668 @@
+package com.diit.ds.rag.cache;
+
+import com.diit.ds.domain.pojo.entity.Document;
+import com.diit.ds.rag.config.PreviewCacheConfig;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 预览文件磁盘缓存
+ *
+ * 负责管理预览目录下的文件：按文档ID哈希前缀分片存放，按字节容量和访问时间淘汰，
+ * 并在源文档删除或变更时失效，避免预览目录无限增长。
+ * 文件名包含源文档指纹的哈希，重启后从磁盘恢复的文件同样可以校验源文档是否已变更
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PreviewFileCache implements InitializingBean, DisposableBean {
+
+    private final PreviewCacheConfig previewCacheConfig;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${file.preview-path:/app/preview/}")
+    private String previewPath;
+
+    @Value("${file.preview-mapping:/preview/}")
+    private String previewMapping;
+
+    // 文件名最大长度限制，设置为较小的值以确保安全
+    private static final int MAX_FILENAME_LENGTH = 100;
+
+    // 下载中的临时文件后缀
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    // 权重以KB为单位，避免大文件超出int范围
+    private static final long WEIGHT_UNIT = 1024L;
+
+    private Path rootDir;
+    private Cache<String, CachedPreviewFile> cache;
+    private Counter staleCounter;
+
+    // 正在下载的文档，同一文档的并发请求共享同一个下载任务
+    private final ConcurrentHashMap<String, CompletableFuture<String>> inFlightDownloads = new ConcurrentHashMap<>();
+
+    // 预取线程池，限制同时下载的文件数
+    private ThreadPoolExecutor prefetchExecutor;
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        rootDir = Paths.get(previewPath).toAbsolutePath().normalize();
+        Files.createDirectories(rootDir);
+
+        long maxWeight = Math.max(1L, previewCacheConfig.getMaxSize().toBytes() / WEIGHT_UNIT);
+        cache = Caffeine.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher((String documentId, CachedPreviewFile file) -> toWeight(file.getSize()))
+                .expireAfterAccess(previewCacheConfig.getExpireAfterAccess())
+                .removalListener(this::onRemoval)
+                .recordStats()
+                .build();
+
+        // 命中、未命中、淘汰等指标
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "preview-file");
+        Gauge.builder("preview.file.cache.bytes", this, c -> c.weightedBytes())
+                .description("预览文件缓存占用的磁盘空间")
+                .register(meterRegistry);
+        staleCounter = Counter.builder("preview.file.cache.stale")
+                .description("因源文档变更而失效的预览文件数")
+                .register(meterRegistry);
+
+        int concurrency = Math.max(1, previewCacheConfig.getPrefetchConcurrency());
+        prefetchExecutor = new ThreadPoolExecutor(
+                concurrency,
+                concurrency,
+                60L,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(Math.max(1, previewCacheConfig.getPrefetchQueueCapacity())),
+                new CustomizableThreadFactory("preview-prefetch-"),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        prefetchExecutor.allowCoreThreadTimeOut(true);
+
+        restoreFromDisk();
+        log.info("预览文件缓存初始化完成，目录: {}, 容量上限: {}, 访问过期时间: {}, 已载入文件数: {}",
+                rootDir, previewCacheConfig.getMaxSize(), previewCacheConfig.getExpireAfterAccess(), cache.estimatedSize());
+    }
+
+    /**
+     * 查询文档的预览文件是否已缓存
+     *
+     * @param document 文档实体
+     * @return 已缓存时返回预览URL，否则返回null
+     */
+    public String lookup(Document document) {
+        return lookup(document, true);
+    }
+
+    /**
+     * 获取文档的预览URL，未缓存时在当前线程下载文件
+     *
+     * 同一文档同一时刻只有一个下载任务，并发请求等待该任务完成；
+     * 文件先写入临时文件，完整写入后原子重命名为正式文件，等待者只会在重命名完成后拿到URL
+     *
+     * @param document 文档实体
+     * @param downloader 文件下载器
+     * @return 预览URL，下载失败时返回null
+     */
+    public String materialize(Document document, PreviewDownloader downloader) throws IOException {
+        return materialize(document, downloader, true);
+    }
+
+    /**
+     * 预热文档的预览文件，与materialize相同但不计入命中率统计
+     *
+     * @param document 文档实体
+     * @param downloader 文件下载器
+     * @return 预览URL，下载失败时返回null
+     */
+    public String warm(Document document, PreviewDownloader downloader) throws IOException {
+        return materialize(document, downloader, false);
+    }
+
+    private String materialize(Document document, PreviewDownloader downloader, boolean recordStats) throws IOException {
+        String previewUrl = lookup(document, recordStats);
+        if (previewUrl != null) {
+            return previewUrl;
+        }
+
+        CompletableFuture<String> future = new CompletableFuture<>();
+        CompletableFuture<String> inFlight = inFlightDownloads.putIfAbsent(document.getId(), future);
+        if (inFlight != null) {
+            log.debug("文档正在下载中，等待下载完成: {}", document.getId());
+            return await(inFlight);
+        }
+
+        runDownload(document, downloader, future);
+        return await(future);
+    }
+
+    /**
+     * 预取文档的预览文件，未缓存时提交到预取线程池下载
+     *
+     * 下载任务在返回前已登记为进行中，随后对同一文档的请求都会等待该任务；
+     * 预取队列已满时不在调用线程下载，返回以RejectedExecutionException完成的Future，由调用方按需下载
+     *
+     * @param document 文档实体
+     * @param downloader 文件下载器
+     * @return 下载完成后得到预览URL的Future，下载失败时结果为null
+     */
+    public CompletableFuture<String> prefetch(Document document, PreviewDownloader downloader) {
+        String previewUrl = lookup(document, true);
+        if (previewUrl != null) {
+            return CompletableFuture.completedFuture(previewUrl);
+        }
+
+        CompletableFuture<String> future = new CompletableFuture<>();
+        CompletableFuture<String> inFlight = inFlightDownloads.putIfAbsent(document.getId(), future);
+        if (inFlight != null) {
+            return inFlight;
+        }
+
+        try {
+            prefetchExecutor.execute(() -> runDownload(document, downloader, future));
+        } catch (RejectedExecutionException e) {
+            // 队列已满或线程池已关闭，撤销登记，之后的访问不再等待这个不会执行的任务
+            log.warn("预取队列已满，跳过预取: {}", document.getId());
+            inFlightDownloads.remove(document.getId(), future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 计算文档的预览URL，不检查文件是否已下载
+     *
+     * @param document 文档实体
+     * @return 预览URL
+     */
+    public String previewUrlOf(Document document) {
+        return toPreviewUrl(relativePath(document));
+    }
+
+    /**
+     * 判断预览URL指向的文件当前是否可以直接访问
+     * 非本地预览目录的URL（如DIOS预览地址）始终视为可访问
+     *
+     * @param documentId 文档ID
+     * @param previewUrl 预览URL
+     * @return 是否可以直接访问
+     */
+    public boolean isAvailable(String documentId, String previewUrl) {
+        if (previewUrl == null || !previewUrl.startsWith(previewMapping)) {
+            return true;
+        }
+
+        CachedPreviewFile cached = cache.policy().getIfPresentQuietly(documentId);
+        return cached != null
+                && previewUrl.equals(toPreviewUrl(cached.getRelativePath()))
+                && Files.exists(cached.getPath());
+    }
+
+    /**
+     * 等待文档正在进行的下载任务完成，没有进行中的任务时立即返回
+     *
+     * @param documentId 文档ID
+     * @param timeout 最长等待时间
+     */
+    public void awaitInFlight(String documentId, Duration timeout) {
+        CompletableFuture<String> inFlight = inFlightDownloads.get(documentId);
+        if (inFlight == null) {
+            return;
+        }
+
+        try {
+            inFlight.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            log.warn("等待预览文件下载未完成: {}, 原因: {}", documentId, e.toString());
+        }
+    }
+
+    /**
+     * 执行下载任务并将结果写入Future
+     */
+    private void runDownload(Document document, PreviewDownloader downloader, CompletableFuture<String> future) {
+        try {
+            // 抢到下载权后再检查一次，上一个下载任务可能刚刚完成
+            String previewUrl = lookup(document, false);
+            if (previewUrl == null) {
+                previewUrl = download(document, downloader);
+            }
+            future.complete(previewUrl);
+        } catch (Throwable e) {
+            log.error("预览文件下载失败: {}, 错误: {}", document.getId(), e.getMessage(), e);
+            future.completeExceptionally(e);
+        } finally {
+            inFlightDownloads.remove(document.getId(), future);
+        }
+    }
+
+    /**
+     * 查询文档的预览文件是否已缓存
+     *
+     * @param document 文档实体
+     * @param recordStats 是否计入命中率统计
+     * @return 已缓存时返回预览URL，否则返回null
+     */
+    private String lookup(Document document, boolean recordStats) {
+        String documentId = document.getId();
+        CachedPreviewFile cached = recordStats
+                ? cache.getIfPresent(documentId)
+                : cache.policy().getIfPresentQuietly(documentId);
+        if (cached == null) {
+            return null;
+        }
+
+        // 源文档已变更（重新上传、重命名等），旧的预览文件作废
+        if (!cached.getFingerprint().equals(fingerprint(document))) {
+            log.info("文档已变更，预览缓存失效: {}", documentId);
+            staleCounter.increment();
+            cache.asMap().remove(documentId, cached);
+            return null;
+        }
+
+        // 文件被外部删除时视为未命中
+        if (!Files.exists(cached.getPath())) {
+            log.warn("预览文件已不存在，移除缓存记录: {}", cached.getPath());
+            cache.asMap().remove(documentId, cached);
+            return null;
+        }
+        return toPreviewUrl(cached.getRelativePath());
+    }
+
+    /**
+     * 下载文件到临时文件，完成后原子重命名并登记到缓存
+     */
+    private String download(Document document, PreviewDownloader downloader) throws IOException {
+        Path target = rootDir.resolve(relativePath(document));
+        Files.createDirectories(target.getParent());
+
+        // 临时文件与目标文件位于同一目录，保证重命名是原子操作
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString() + ".", TEMP_FILE_SUFFIX);
+        boolean moved = false;
+        try {
+            try (OutputStream outputStream = Files.newOutputStream(temp)) {
+                if (!downloader.download(document, outputStream)) {
+                    return null;
+                }
+            }
+
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+
+            log.info("文件下载成功: {}, 保存路径: {}", document.getName(), target);
+            return admit(document, target);
+        } finally {
+            if (!moved) {
+                deleteQuietly(temp);
+            }
+        }
+    }
+
+    /**
+     * 将下载完成的预览文件登记到缓存
+     */
+    private String admit(Document document, Path path) throws IOException {
+        String relativePath = rootDir.relativize(path).toString().replace('\\', '/');
+        cache.put(document.getId(), newEntry(document.getId(), path, relativePath, fingerprint(document)));
+        return toPreviewUrl(relativePath);
+    }
+
+    /**
+     * 等待其他线程的下载任务完成，最长等待awaitTimeout
+     */
+    private String await(CompletableFuture<String> inFlight) throws IOException {
+        try {
+            return inFlight.get(previewCacheConfig.getAwaitTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待预览文件下载被中断", e);
+        } catch (TimeoutException e) {
+            throw new IOException("等待预览文件下载超时", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("预览文件下载失败", cause);
+        }
+    }
+
+    /**
+     * 使文档的预览文件失效并删除
+     *
+     * @param documentId 文档ID
+     */
+    public void invalidate(String documentId) {
+        if (documentId != null) {
+            cache.invalidate(documentId);
+        }
+    }
+
+    /**
+     * 批量使文档的预览文件失效并删除
+     *
+     * @param documentIds 文档ID集合
+     */
+    public void invalidateAll(Collection<String> documentIds) {
+        if (documentIds != null && !documentIds.isEmpty()) {
+            cache.invalidateAll(documentIds.stream().filter(Objects::nonNull).collect(Collectors.toList()));
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdown();
+        }
+    }
+
+    /**
+     * 定期执行缓存维护，确保空闲期间过期的文件也能及时从磁盘删除
+     */
+    @Scheduled(fixedDelayString = "${file.preview-cache.cleanup-interval-ms:600000}")
+    public void cleanUp() {
+        cache.cleanUp();
+        log.debug("预览文件缓存维护完成，文件数: {}, 占用空间: {} 字节", cache.estimatedSize(), weightedBytes());
+    }
+
+    /**
+     * 缓存移除回调，淘汰、过期、替换或主动失效时删除磁盘文件
+     */
+    private void onRemoval(String documentId, CachedPreviewFile cached, RemovalCause cause) {
+        if (cached == null) {
+            return;
+        }
+
+        // 回调为异步执行，若该路径已被重新下载的文件原子替换，则磁盘上已不是该记录对应的文件
+        if (!isSameFile(cached)) {
+            return;
+        }
+
+        deleteQuietly(cached.getPath());
+        log.debug("预览文件已移除: {}, 原因: {}", cached.getPath(), cause);
+    }
+
+    /**
+     * 启动时扫描预览目录，恢复已有文件的缓存记录
+     * 旧版本平铺在根目录下的文件会被迁移到对应的分片目录；
+     * 指纹取自文件名，源文档在停机期间变更的文件在首次访问时失效
+     */
+    private void restoreFromDisk() {
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(rootDir)) {
+            files = stream.filter(Files::isRegularFile).collect(Collectors.toCollection(ArrayList::new));
+        } catch (IOException e) {
+            log.error("扫描预览目录失败: {}", e.getMessage(), e);
+            return;
+        }
+
+        // 按修改时间升序载入，容量不足时优先淘汰较旧的文件
+        files.sort(Comparator.comparingLong(this::lastModified));
+
+        for (Path file : files) {
+            String fileName = file.getFileName().toString();
+            if (fileName.endsWith(TEMP_FILE_SUFFIX)) {
+                // 上次未完成下载遗留的临时文件
+                deleteQuietly(file);
+                continue;
+            }
+
+            int separatorIndex = fileName.indexOf('_');
+            if (separatorIndex <= 0) {
+                deleteQuietly(file);
+                continue;
+            }
+
+            String documentId = fileName.substring(0, separatorIndex);
+            int extensionIndex = fileName.indexOf('.', separatorIndex);
+            String fingerprint = fileName.substring(separatorIndex + 1, extensionIndex > 0 ? extensionIndex : fileName.length());
+            try {
+                Path target = rootDir.resolve(shardDirectory(documentId)).resolve(fileName);
+                if (!file.equals(target)) {
+                    Files.createDirectories(target.getParent());
+                    Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+
+                String relativePath = rootDir.relativize(target).toString().replace('\\', '/');
+                // 同一文档存在多个历史文件时只保留最新的一个，被替换的旧文件由移除回调删除
+                cache.put(documentId, newEntry(documentId, target, relativePath, fingerprint));
+            } catch (IOException e) {
+                log.warn("恢复预览文件失败: {}, 错误: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 创建缓存记录，同时记录文件标识用于识别文件是否已被替换
+     */
+    private CachedPreviewFile newEntry(String documentId, Path path, String relativePath, String fingerprint) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        return new CachedPreviewFile(documentId, path, relativePath, attributes.size(), fingerprint,
+                fileIdentity(attributes));
+    }
+
+    /**
+     * 判断磁盘上的文件是否仍是缓存记录对应的那一个
+     */
+    private boolean isSameFile(CachedPreviewFile cached) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(cached.getPath(), BasicFileAttributes.class);
+            return Objects.equals(cached.getFileIdentity(), fileIdentity(attributes));
+        } catch (IOException e) {
+            // 文件已不存在
+            return false;
+        }
+    }
+
+    /**
+     * 文件标识，优先使用文件系统提供的文件键（inode），不支持时退化为修改时间和大小
+     */
+    private Object fileIdentity(BasicFileAttributes attributes) {
+        Object fileKey = attributes.fileKey();
+        if (fileKey != null) {
+            return fileKey;
+        }
+        return attributes.lastModifiedTime().toMillis() + ":" + attributes.size();
+    }
+
+    /**
+     * 构建预览文件的相对路径：分片目录/安全文件名
+     */
+    private String relativePath(Document document) {
+        return shardDirectory(document.getId()) + "/" + formatSafeFileName(document);
+    }
+
+    /**
+     * 根据文档ID的MD5前缀计算分片目录
+     */
+    private String shardDirectory(String documentId) {
+        String hash = DigestUtils.md5DigestAsHex(documentId.getBytes(StandardCharsets.UTF_8));
+        int levels = Math.min(Math.max(previewCacheConfig.getShardLevels(), 1), hash.length() / 2);
+
+        StringBuilder shard = new StringBuilder();
+        for (int i = 0; i < levels; i++) {
+            if (i > 0) {
+                shard.append('/');
+            }
+            shard.append(hash, i * 2, i * 2 + 2);
+        }
+        return shard.toString();
+    }
+
+    /**
+     * 格式化安全的文件名：documentId_指纹哈希.extension
+     * 使用源文档指纹的MD5哈希作为文件名基础，避免特殊字符和长度问题，源文档变更后文件名随之变化
+     *
+     * @param document 文档实体
+     * @return 格式化后的安全文件名
+     */
+    private String formatSafeFileName(Document document) {
+        String documentId = document.getId();
+        String originalFileName = document.getName();
+        String md5FileName = fingerprint(document);
+        if (originalFileName == null || originalFileName.isEmpty()) {
+            return documentId + "_" + md5FileName;
+        }
+
+        // 获取文件扩展名
+        String extension = "";
+        int lastDotIndex = originalFileName.lastIndexOf('.');
+        if (lastDotIndex > 0) {
+            extension = originalFileName.substring(lastDotIndex).toLowerCase();
+        }
+
+        // 组合安全的文件名：documentId_md5hash.extension
+        String safeFileName = documentId + "_" + md5FileName + extension;
+        if (safeFileName.length() > MAX_FILENAME_LENGTH) {
+            safeFileName = documentId + "_" + md5FileName;
+        }
+
+        // 记录文件名映射关系，便于排查问题
+        log.debug("文件名映射: {} -> {}", originalFileName, safeFileName);
+
+        return safeFileName;
+    }
+
+    /**
+     * 文档指纹的MD5哈希，源文件被替换后存储位置或大小会发生变化
+     */
+    private String fingerprint(Document document) {
+        String fingerprint = document.getName() + "|" + document.getLocation() + "|" + document.getSize();
+        return DigestUtils.md5DigestAsHex(fingerprint.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String toPreviewUrl(String relativePath) {
+        return previewMapping + relativePath;
+    }
+
+    private int toWeight(long size) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1L, (size + WEIGHT_UNIT - 1) / WEIGHT_UNIT));
+    }
+
+    private double weightedBytes() {
+        return cache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L) * WEIGHT_UNIT)
+                .orElse(0L);
+    }
+
+    private long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("删除预览文件失败: {}, 错误: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * 已缓存的预览文件
+     * 不重写equals，asMap().remove(key, value)按对象标识只移除检查过的那条记录
+     */
+    @Getter
+    @RequiredArgsConstructor
+    private static class CachedPreviewFile {
+        /**
+         * 文档ID
+         */
+        private final String documentId;
+
+        /**
+         * 文件绝对路径
+         */
+        private final Path path;
+
+        /**
+         * 相对预览目录的路径
+         */
+        private final String relativePath;
+
+        /**
+         * 文件大小（字节）
+         */
+        private final long size;
+
+        /**
+         * 源文档指纹的哈希，与文件名中的一致
+         */
+        private final String fingerprint;
+
+        /**
+         * 登记时的文件标识
+         */
+        private final Object fileIdentity;
+    }
+
+    /**
+     * 预览文件下载器
+     */
+    @FunctionalInterface
+    public interface PreviewDownloader {
+
+        /**
+         * 将文档内容写入输出流
+         *
+         * @param document 文档实体
+         * @param outputStream 输出流
+         * @return 是否下载成功
+         */
+        boolean download(Document document, OutputStream outputStream) throws IOException;
+    }
+}
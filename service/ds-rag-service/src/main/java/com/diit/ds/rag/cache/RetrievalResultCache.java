@@ -0,0 +1,225 @@
+package com.diit.ds.rag.cache;
+
+import com.diit.ds.rag.domain.req.RAGFlowKnowledgeReq;
+import com.diit.ds.rag.domain.resp.RAGFlowKnowledgeResp;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * RAGFlow检索结果缓存
+ *
+ * 以规范化后的问题、排序后的知识库ID集合及检索参数为键缓存检索结果，
+ * 知识库中的文档新增、删除或重新解析时使相关结果失效；解析过程中分块陆续可检索，
+ * 有文档正在解析的知识库不缓存检索结果，解析结束后再失效一次
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RetrievalResultCache implements InitializingBean {
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${rag.cache.retrieval.enabled:true}")
+    private boolean enabled;
+
+    @Value("${rag.cache.retrieval.expire-seconds:300}")
+    private int expireSeconds;
+
+    @Value("${rag.cache.retrieval.maximum-size:1000}")
+    private int maximumSize;
+
+    private Cache<RetrievalKey, RAGFlowKnowledgeResp> cache;
+
+    // 知识库版本号，知识库内容变化时递增，用于丢弃变化前发起的检索结果
+    private final ConcurrentHashMap<String, AtomicLong> datasetVersions = new ConcurrentHashMap<>();
+
+    // 正在解析的文档（文档ID -> 知识库ID），由ParseProgressWatchTask检查解析是否结束
+    private final ConcurrentHashMap<String, String> parsingDocuments = new ConcurrentHashMap<>();
+
+    @Override
+    public void afterPropertiesSet() {
+        cache = Caffeine.newBuilder()
+                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "ragflow-retrieval");
+        log.info("RAGFlow检索结果缓存{}，过期时间: {}秒, 最大条数: {}", enabled ? "已开启" : "未开启", expireSeconds, maximumSize);
+    }
+
+    /**
+     * 检索，命中缓存时直接返回缓存结果
+     *
+     * @param req RAGFlow检索请求
+     * @param loader 未命中时实际执行检索的方法
+     * @return 检索结果
+     */
+    public RAGFlowKnowledgeResp retrieve(RAGFlowKnowledgeReq req, Function<RAGFlowKnowledgeReq, RAGFlowKnowledgeResp> loader) {
+        if (!enabled || req.getQuestion() == null) {
+            return loader.apply(req);
+        }
+
+        RetrievalKey key = RetrievalKey.of(req);
+        RAGFlowKnowledgeResp cached = cache.getIfPresent(key);
+        if (cached != null) {
+            log.debug("命中检索结果缓存: {}", key.getQuestion());
+            return cached;
+        }
+
+        // 记录检索前的知识库版本，检索期间知识库发生变化则不缓存本次结果
+        Map<String, Long> versionsBefore = currentVersions(key.getDatasetIds());
+        RAGFlowKnowledgeResp resp = loader.apply(req);
+
+        // 分片检索部分失败的不完整结果不缓存
+        if (resp != null && resp.getCode() == 0 && !resp.isPartial()
+                && versionsBefore.equals(currentVersions(key.getDatasetIds()))
+                && !isParsing(key.getDatasetIds())) {
+            cache.put(key, resp);
+        }
+        return resp;
+    }
+
+    /**
+     * 知识库内容发生变化（文档新增、删除、重新解析、分块修改），使相关的检索结果失效
+     *
+     * @param datasetIds 发生变化的知识库ID
+     */
+    public void invalidateDatasets(Collection<String> datasetIds) {
+        if (datasetIds == null || datasetIds.isEmpty()) {
+            return;
+        }
+
+        List<String> changed = datasetIds.stream().filter(Objects::nonNull).distinct().collect(Collectors.toList());
+        changed.forEach(datasetId -> datasetVersions.computeIfAbsent(datasetId, k -> new AtomicLong()).incrementAndGet());
+        cache.asMap().keySet().removeIf(key -> !Collections.disjoint(key.getDatasetIds(), changed));
+        log.debug("知识库内容变化，已失效相关检索结果缓存: {}", changed);
+    }
+
+    /**
+     * 知识库内容发生变化，使相关的检索结果失效
+     *
+     * @param datasetId 发生变化的知识库ID
+     */
+    public void invalidateDataset(String datasetId) {
+        invalidateDatasets(Collections.singletonList(datasetId));
+    }
+
+    /**
+     * 文档开始解析，解析结束前相关知识库的检索结果不缓存
+     *
+     * @param datasetId 知识库ID
+     * @param documentIds 开始解析的文档ID
+     */
+    public void markParsing(String datasetId, Collection<String> documentIds) {
+        if (datasetId == null || documentIds == null) {
+            return;
+        }
+        documentIds.stream().filter(Objects::nonNull).forEach(documentId -> parsingDocuments.put(documentId, datasetId));
+        invalidateDataset(datasetId);
+    }
+
+    /**
+     * 文档解析结束（完成、失败或被停止），使相关知识库的检索结果失效并恢复缓存
+     *
+     * @param documentIds 解析结束的文档ID
+     */
+    public void finishParsing(Collection<String> documentIds) {
+        if (documentIds == null || documentIds.isEmpty()) {
+            return;
+        }
+        List<String> datasetIds = documentIds.stream()
+                .filter(Objects::nonNull)
+                .map(parsingDocuments::remove)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        invalidateDatasets(datasetIds);
+    }
+
+    /**
+     * 正在解析的文档
+     *
+     * @return 文档ID -> 知识库ID的快照
+     */
+    public Map<String, String> parsingDocuments() {
+        return new HashMap<>(parsingDocuments);
+    }
+
+    private boolean isParsing(List<String> datasetIds) {
+        return !parsingDocuments.isEmpty() && parsingDocuments.values().stream().anyMatch(datasetIds::contains);
+    }
+
+    private Map<String, Long> currentVersions(List<String> datasetIds) {
+        Map<String, Long> versions = new HashMap<>();
+        for (String datasetId : datasetIds) {
+            AtomicLong version = datasetVersions.get(datasetId);
+            versions.put(datasetId, version == null ? 0L : version.get());
+        }
+        return versions;
+    }
+
+    /**
+     * 检索结果缓存键
+     */
+    @Data
+    @AllArgsConstructor
+    static class RetrievalKey {
+        private final String question;
+        private final List<String> datasetIds;
+        private final List<String> documentIds;
+        private final Integer topK;
+        private final Integer pageSize;
+        private final Double similarityThreshold;
+        private final Double vectorSimilarityWeight;
+        private final Boolean keyword;
+        private final Boolean highlight;
+
+        static RetrievalKey of(RAGFlowKnowledgeReq req) {
+            return new RetrievalKey(
+                    normalize(req.getQuestion()),
+                    sorted(req.getDatasetIds()),
+                    sorted(req.getDocumentIds()),
+                    req.getTopK(),
+                    req.getPageSize(),
+                    req.getSimilarityThreshold(),
+                    req.getVectorSimilarityWeight(),
+                    req.getKeyword(),
+                    req.getHighlight());
+        }
+
+        /**
+         * 问题规范化：去除首尾空白、合并连续空白、统一小写
+         */
+        private static String normalize(String question) {
+            return question.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        }
+
+        private static List<String> sorted(List<String> ids) {
+            if (ids == null) {
+                return Collections.emptyList();
+            }
+            return ids.stream().filter(Objects::nonNull).distinct().sorted().collect(Collectors.toList());
+        }
+    }
+}
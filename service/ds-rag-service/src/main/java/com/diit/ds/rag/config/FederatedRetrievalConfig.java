@@ -0,0 +1,51 @@
+package com.diit.ds.rag.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 联合检索配置类
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "rag.federated")
+public class FederatedRetrievalConfig {
+
+    /**
+     * 倒数排名融合（RRF）的平滑常数k，得分为 weight / (k + rank)
+     */
+    private int rrfK = 60;
+
+    /**
+     * 并发调用各后端的线程数
+     */
+    private int concurrency = 16;
+
+    /**
+     * 参与联合检索的后端，键为后端名称：ragflow、dios、h3c
+     */
+    private Map<String, Backend> backends = new LinkedHashMap<>();
+
+    @Data
+    public static class Backend {
+        /**
+         * 是否参与联合检索
+         */
+        private boolean enabled = true;
+
+        /**
+         * 单个后端的超时时间，超时后丢弃该后端结果，返回其余后端的部分结果
+         */
+        private Duration timeout = Duration.ofSeconds(3);
+
+        /**
+         * 融合时该后端的权重
+         */
+        private double weight = 1.0;
+    }
+}
@@ -0,0 +1,80 @@
+package com.diit.ds.rag.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * 预览文件缓存配置类
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "file.preview-cache")
+public class PreviewCacheConfig {
+
+    /**
+     * 预览目录允许占用的最大磁盘空间，超出后按最近最少使用淘汰
+     */
+    private DataSize maxSize = DataSize.ofGigabytes(10);
+
+    /**
+     * 预览文件最后一次访问后的保留时长
+     */
+    private Duration expireAfterAccess = Duration.ofDays(7);
+
+    /**
+     * 哈希前缀分片目录层级，每层使用文档ID哈希的2个十六进制字符
+     */
+    private int shardLevels = 1;
+
+    /**
+     * 预取时同时下载的最大文件数
+     */
+    private int prefetchConcurrency = 4;
+
+    /**
+     * 预取任务队列容量，队列满时由调用线程直接下载
+     */
+    private int prefetchQueueCapacity = 100;
+
+    /**
+     * 是否异步预取：开启后查询引用信息时立即返回预览URL，文件在后台下载
+     */
+    private boolean asyncPrefetch = false;
+
+    /**
+     * 等待进行中的下载任务（并发请求同一文档、访问尚未下载完成的预览文件）的最长时间
+     */
+    private Duration awaitTimeout = Duration.ofSeconds(60);
+
+    /**
+     * 检索结果触发的预览文件预热配置
+     */
+    private Warmup warmup = new Warmup();
+
+    @Data
+    public static class Warmup {
+        /**
+         * 是否在检索完成后预热被引用文档的预览文件
+         */
+        private boolean enabled = false;
+
+        /**
+         * 预热队列容量，队列满时丢弃新的预热请求
+         */
+        private int queueCapacity = 200;
+
+        /**
+         * 每秒最多开始下载的文档数
+         */
+        private double permitsPerSecond = 2.0;
+
+        /**
+         * 每次检索最多预热的文档数
+         */
+        private int maxDocumentsPerRetrieval = 10;
+    }
+}
@@ -0,0 +1,31 @@
+package com.diit.ds.rag.config;
+
+import com.diit.ds.rag.cache.PreviewAwaitInterceptor;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * 预览文件访问配置
+ */
+@Configuration
+@RequiredArgsConstructor
+public class PreviewCacheWebConfig implements WebMvcConfigurer {
+
+    private final PreviewAwaitInterceptor previewAwaitInterceptor;
+
+    @Value("${file.preview-mapping:/preview/}")
+    private String previewMapping;
+
+    /**
+     * 预览文件访问前等待进行中的下载任务
+     * @param registry 拦截器注册器
+     */
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(previewAwaitInterceptor)
+                .addPathPatterns(previewMapping + "**");
+    }
+}
@@ -4,6 +4,8 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+
 /**
  * RAGFlow配置类
  */
@@ -31,4 +33,98 @@ public class RAGFlowConfig {
      * rerank_id
      */
     private String rerankId;
+
+    /**
+     * 分片检索配置
+     */
+    private Sharding sharding = new Sharding();
+
+    /**
+     * 近似重复文本块去重配置
+     */
+    private Dedup dedup = new Dedup();
+
+    /**
+     * 检索请求对冲配置
+     */
+    private Hedging hedging = new Hedging();
+
+    @Data
+    public static class Sharding {
+        /**
+         * 是否开启分片检索：知识库数量超过分片大小时拆分为多次检索并发执行
+         */
+        private boolean enabled = false;
+
+        /**
+         * 每个分片包含的知识库数量
+         */
+        private int shardSize = 20;
+
+        /**
+         * 同时执行的分片检索数
+         */
+        private int concurrency = 8;
+    }
+
+    @Data
+    public static class Dedup {
+        /**
+         * 是否对检索结果做近似重复去重：同一段落上传到多个知识库时只保留相似度最高的一份
+         */
+        private boolean enabled = false;
+
+        /**
+         * SimHash指纹汉明距离不超过该值时视为近似重复
+         */
+        private int hammingThreshold = 3;
+
+        /**
+         * 多取的倍数，去重后用排名靠后的结果补足条数
+         */
+        private int overfetchFactor = 2;
+    }
+
+    @Data
+    public static class Hedging {
+        /**
+         * 是否开启请求对冲：首个请求超过对冲延迟仍未返回时再发一个相同请求，先返回者为准
+         */
+        private boolean enabled = false;
+
+        /**
+         * 对冲延迟取历史延迟的该分位数
+         */
+        private double percentile = 0.95;
+
+        /**
+         * 样本不足时使用的对冲延迟
+         */
+        private Duration defaultDelay = Duration.ofMillis(800);
+
+        /**
+         * 对冲延迟下限
+         */
+        private Duration minDelay = Duration.ofMillis(50);
+
+        /**
+         * 对冲延迟上限
+         */
+        private Duration maxDelay = Duration.ofSeconds(5);
+
+        /**
+         * 计算分位数所需的最少样本数
+         */
+        private int minSamples = 50;
+
+        /**
+         * 对冲请求数占总请求数的最大比例
+         */
+        private double budgetRatio = 0.1;
+
+        /**
+         * 同时进行的检索请求（含对冲请求）上限
+         */
+        private int concurrency = 32;
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,35 @@
+package com.diit.ds.rag.config;
+
+import com.diit.ds.rag.domain.dto.KnowledgeSearchResultDTO;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 知识检索相关缓存配置
+ */
+@Configuration
+public class RagCacheConfig {
+
+    @Value("${rag.cache.query-info.maximum-size:2000}")
+    private int queryInfoMaximumSize;
+
+    @Value("${rag.cache.query-info.expire-hours:24}")
+    private int queryInfoExpireHours;
+
+    /**
+     * 工作流运行的知识查询信息缓存
+     * 同一运行追加检索结果时由写入方失效，此外按容量和访问时间淘汰
+     */
+    @Bean(name = "knowledgeQueryInfoCache")
+    public Cache<String, KnowledgeSearchResultDTO> knowledgeQueryInfoCache() {
+        return Caffeine.newBuilder()
+                .expireAfterAccess(queryInfoExpireHours, TimeUnit.HOURS)
+                .maximumSize(queryInfoMaximumSize)
+                .build();
+    }
+}
@@ -1,5 +1,6 @@
 package com.diit.ds.rag.domain.resp;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
 
@@ -18,6 +19,12 @@ public class RAGFlowKnowledgeResp {
     @JsonProperty("message")
     private String message;
 
+    /**
+     * 分片检索中部分分片失败时返回的不完整结果，不写入检索结果缓存
+     */
+    @JsonIgnore
+    private boolean partial;
+
     @Data
     public static class RespData {
         @JsonProperty("chunks")
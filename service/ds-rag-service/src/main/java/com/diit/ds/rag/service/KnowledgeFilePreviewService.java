@@ -23,4 +23,12 @@ public interface KnowledgeFilePreviewService {
      * 根据work_flow_run_id获取知识查询的相关信息
      */
     KnowledgeSearchResultDTO getKnowledgeQueryInfo(String workFlowRunId);
+
+    /**
+     * 运行结果写入数据库后失效该运行的知识查询信息缓存
+     * 同一workFlowRunId可能多次追加检索结果，写入方提交后调用
+     *
+     * @param workFlowRunId 工作流运行ID
+     */
+    void evictKnowledgeQueryInfo(String workFlowRunId);
 }
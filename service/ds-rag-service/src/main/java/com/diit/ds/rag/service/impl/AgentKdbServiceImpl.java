@@ -2,6 +2,8 @@ package com.diit.ds.rag.service.impl;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.diit.ds.domain.mapper.AgentKdbMapper;
+import com.diit.ds.rag.cache.AgentKdbBindingCache;
+import com.diit.ds.rag.cache.RetrievalResultCache;
 import com.diit.ds.rag.domain.req.AgentKnowledgeHttpReq;
 import com.diit.ds.rag.domain.req.RAGFlowKnowledgeReq;
 import com.diit.ds.rag.domain.resp.DifyKnowledgeHttpResp;
@@ -12,7 +14,8 @@ import com.diit.ds.domain.pojo.entity.WorkflowDocAgg;
 import com.diit.ds.domain.pojo.entity.WorkflowRun;
 import com.diit.ds.rag.service.AgentKdbService;
 import com.diit.ds.rag.service.RAGFlowDBAPIService;
-import com.diit.ds.rag.service.WorkflowRunService;
+import com.diit.ds.rag.task.PreviewWarmupTask;
+import com.diit.ds.rag.task.WorkflowRunPersistTask;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
@@ -35,18 +38,19 @@ public class AgentKdbServiceImpl extends ServiceImpl<AgentKdbMapper, AgentKdb>
     implements AgentKdbService{
 
     private final RAGFlowDBAPIService ragFlowDBAPIService;
-    private final WorkflowRunService workflowRunService;
-    private final WorkflowDocAggServiceImpl workflowDocAggService;
-    private final WorkflowChunkServiceImpl workflowChunkService;
+    private final AgentKdbBindingCache agentKdbBindingCache;
+    private final RetrievalResultCache retrievalResultCache;
+    private final WorkflowRunPersistTask workflowRunPersistTask;
     private final ObjectMapper objectMapper;
+    private final PreviewWarmupTask previewWarmupTask;
 
     @Override
     public DifyKnowledgeHttpResp retrieveKnowledgeHttp(AgentKnowledgeHttpReq req) {
         // 将Dify请求转换为RAGFlow请求
         RAGFlowKnowledgeReq ragFlowReq = convertToRAGFlowRequest(req);
 
-        // 调用RAGFlow API
-        RAGFlowKnowledgeResp ragFlowResp = ragFlowDBAPIService.retrieval(ragFlowReq);
+        // 调用RAGFlow API（相同检索条件命中缓存时直接返回）
+        RAGFlowKnowledgeResp ragFlowResp = retrievalResultCache.retrieve(ragFlowReq, ragFlowDBAPIService::retrieval);
 
         // 将RAGFlow响应转换为Dify响应
         DifyKnowledgeHttpResp difyResp = convertToDifyHttpResponse(ragFlowResp);
@@ -54,6 +58,9 @@ public class AgentKdbServiceImpl extends ServiceImpl<AgentKdbMapper, AgentKdb>
         // 根据work_flow_run_id，把此次查询的结果存储到数据库中，实现高亮效果
         persistRagFlowResponse(ragFlowResp, req.getWorkFlowRunId(), req.getQuery());
 
+        // 预热被引用文档的预览文件，用户打开引用时可直接命中缓存
+        previewWarmupTask.submit(ragFlowResp);
+
         return difyResp;
     }
 
@@ -67,18 +74,14 @@ public class AgentKdbServiceImpl extends ServiceImpl<AgentKdbMapper, AgentKdb>
         ragFlowReq.setQuestion(req.getQuery());
 
         // 设置知识库ID
+        // 从绑定关系缓存读取，不再每次查询agent_kdb表
         String appId = req.getAppId();
-        List<AgentKdb> list = lambdaQuery().eq(AgentKdb::getAppId, appId).list();
-        if (list == null || list.isEmpty()) {
+        List<String> kdbIds = agentKdbBindingCache.getKdbIds(appId);
+        if (kdbIds.isEmpty()) {
             log.error("知识库不能为空，appId：{}", appId);
             throw new RuntimeException("知识库不能为空");
         }
 
-        List<String> kdbIds = list
-                .stream()
-                .map(AgentKdb::getKdbId)
-                .toList();
-
         ragFlowReq.setDatasetIds(kdbIds);
 
         // 设置检索参数
@@ -146,11 +149,9 @@ public class AgentKdbServiceImpl extends ServiceImpl<AgentKdbMapper, AgentKdb>
                 workflowRun.setTotal(ragFlowResp.getData().getTotal());
             }
 
-            workflowRunService.save(workflowRun);
-
             // 2. 保存文档片段记录
+            List<WorkflowChunk> chunkList = new ArrayList<>();
             if (ragFlowResp.getData() != null && ragFlowResp.getData().getChunks() != null) {
-                List<WorkflowChunk> chunkList = new ArrayList<>();
 
                 Integer index = 1;
                 // 遍历文档片段
@@ -199,16 +200,11 @@ public class AgentKdbServiceImpl extends ServiceImpl<AgentKdbMapper, AgentKdb>
 
                     chunkList.add(workflowChunk);
                 }
-
-                if (!chunkList.isEmpty()) {
-                    workflowChunkService.saveBatch(chunkList);
-                }
             }
 
             // 3. 保存文档聚合记录
+            List<WorkflowDocAgg> docAggList = new ArrayList<>();
             if (ragFlowResp.getData() != null && ragFlowResp.getData().getDocAggs() != null) {
-                List<WorkflowDocAgg> docAggList = new ArrayList<>();
-
                 for (RAGFlowKnowledgeResp.RespData.DocAgg docAgg : ragFlowResp.getData().getDocAggs()) {
                     WorkflowDocAgg workflowDocAgg = new WorkflowDocAgg();
                     workflowDocAgg.setWorkFlowRunId(workFlowRunId);
@@ -218,12 +214,11 @@ public class AgentKdbServiceImpl extends ServiceImpl<AgentKdbMapper, AgentKdb>
 
                     docAggList.add(workflowDocAgg);
                 }
-
-                if (!docAggList.isEmpty()) {
-                    workflowDocAggService.saveBatch(docAggList);
-                }
             }
 
+            // 4. 提交到写入队列，由后台线程批量写入数据库
+            workflowRunPersistTask.submit(workflowRun, chunkList, docAggList);
+            
             log.info("成功持久化RAGFlow响应数据，workFlowRunId: {}", workFlowRunId);
         } catch (Exception e) {
             log.error("持久化RAGFlow响应数据失败", e);
@@ -11,6 +11,7 @@ import com.diit.ds.domain.pojo.entity.WorkflowDocAgg;
 import com.diit.ds.domain.pojo.entity.WorkflowRun;
 import com.diit.ds.rag.service.DifyKnowledgeService;
 import com.diit.ds.rag.service.DiosAPIService;
+import com.diit.ds.rag.service.KnowledgeFilePreviewService;
 import com.diit.ds.rag.service.WorkflowRunService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
@@ -32,6 +33,7 @@ public class Dios2DifyKnowledgeServiceImpl implements DifyKnowledgeService {
     private final WorkflowRunService workflowRunService;
     private final WorkflowDocAggServiceImpl workflowDocAggService;
     private final WorkflowChunkServiceImpl workflowChunkService;
+    private final KnowledgeFilePreviewService knowledgeFilePreviewService;
     private final ObjectMapper objectMapper;
 
 
@@ -293,6 +295,9 @@ public class Dios2DifyKnowledgeServiceImpl implements DifyKnowledgeService {
             log.info("成功持久化DIOS响应数据，workFlowRunId: {}", workFlowRunId);
         } catch (Exception e) {
             log.error("持久化DIOS响应数据失败", e);
+        } finally {
+            // 同一运行可能多次追加检索结果，写入（含部分写入）后失效已缓存的知识查询信息
+            knowledgeFilePreviewService.evictKnowledgeQueryInfo(workFlowRunId);
         }
     }
 }
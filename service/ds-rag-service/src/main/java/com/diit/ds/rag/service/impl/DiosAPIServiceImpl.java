@@ -1,5 +1,6 @@
 package com.diit.ds.rag.service.impl;
 
+import com.diit.ds.common.exception.BackendUnavailableException;
 import com.diit.ds.rag.domain.req.DiosRetrieveReq;
 import com.diit.ds.rag.domain.resp.DiosRetrieveResp;
 import com.diit.ds.rag.service.DiosAPIService;
@@ -46,7 +47,16 @@ public class DiosAPIServiceImpl implements DiosAPIService {
         
         // 发送请求
         HttpEntity<DiosRetrieveReq> requestEntity = new HttpEntity<>(retrieveReq, headers);
-        String responseJson = restTemplate.postForObject(url, requestEntity, String.class);
+        String responseJson;
+        try {
+            responseJson = restTemplate.postForObject(url, requestEntity, String.class);
+        } catch (BackendUnavailableException e) {
+            // 熔断中或并发已满，快速返回空结果
+            log.warn("DIOS检索快速失败: {}", e.getMessage());
+            DiosRetrieveResp fallback = new DiosRetrieveResp();
+            fallback.setRetrieveResults(new ArrayList<>());
+            return fallback;
+        }
         
         // 解析响应
         DiosRetrieveResp resp = new DiosRetrieveResp();
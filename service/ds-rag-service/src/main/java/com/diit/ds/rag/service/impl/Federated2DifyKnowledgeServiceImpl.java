@@ -0,0 +1,256 @@
+package com.diit.ds.rag.service.impl;
+
+import com.diit.ds.rag.config.FederatedRetrievalConfig;
+import com.diit.ds.rag.domain.req.DifyKnowledgeHttpReq;
+import com.diit.ds.rag.domain.req.DifyKnowledgeReq;
+import com.diit.ds.rag.domain.resp.DifyKnowledgeHttpResp;
+import com.diit.ds.rag.domain.resp.DifyKnowledgeResp;
+import com.diit.ds.rag.service.DifyKnowledgeService;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 联合检索服务实现
+ * 将查询并行分发到配置的多个知识库后端（RAGFlow、DIOS、H3C），各后端独立超时，
+ * 分数在后端内归一化后按倒数排名融合（RRF）合并，慢后端超时后返回其余后端的部分结果
+ */
+@Slf4j
+@Service("federated2DifyKnowledgeServiceImpl")
+public class Federated2DifyKnowledgeServiceImpl implements DifyKnowledgeService, InitializingBean, DisposableBean {
+
+    private static final String RAGFLOW = "ragflow";
+
+    private final FederatedRetrievalConfig federatedRetrievalConfig;
+
+    private final Map<String, DifyKnowledgeService> backendServices = new LinkedHashMap<>();
+
+    private ThreadPoolExecutor executor;
+
+    public Federated2DifyKnowledgeServiceImpl(
+            FederatedRetrievalConfig federatedRetrievalConfig,
+            @Qualifier("ragFlow2DifyKnowledgeServiceImpl") DifyKnowledgeService ragFlowKnowledgeService,
+            @Qualifier("dios2DifyKnowledgeServiceImpl") DifyKnowledgeService diosKnowledgeService,
+            @Qualifier("h3c2DifyKnowledgeServiceImpl") DifyKnowledgeService h3cKnowledgeService) {
+        this.federatedRetrievalConfig = federatedRetrievalConfig;
+        this.backendServices.put(RAGFLOW, ragFlowKnowledgeService);
+        this.backendServices.put("dios", diosKnowledgeService);
+        this.backendServices.put("h3c", h3cKnowledgeService);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        // 后端调用均为阻塞IO，线程数达到上限时拒绝，该后端按超时处理，不在调用线程中执行以免超时失效
+        executor = new ThreadPoolExecutor(
+                0,
+                Math.max(1, federatedRetrievalConfig.getConcurrency()),
+                60,
+                TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                new CustomizableThreadFactory("federated-retrieval-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        log.info("联合检索后端配置: {}", federatedRetrievalConfig.getBackends());
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public DifyKnowledgeResp retrieveKnowledge(DifyKnowledgeReq req) {
+        long start = System.currentTimeMillis();
+
+        // 并行分发到各后端，每个后端超时后以空结果完成
+        Map<String, CompletableFuture<BackendResult>> futures = new LinkedHashMap<>();
+        federatedRetrievalConfig.getBackends().forEach((name, backend) -> {
+            DifyKnowledgeService service = backendServices.get(name);
+            if (service == null) {
+                log.warn("未知的联合检索后端: {}", name);
+                return;
+            }
+            if (!backend.isEnabled()) {
+                return;
+            }
+
+            CompletableFuture<BackendResult> future = submitBackend(name, service, req, backend.getTimeout().toMillis())
+                    .exceptionally(e -> {
+                        log.error("联合检索后端[{}]调用失败", name, e);
+                        return new BackendResult(name, Collections.emptyList(), false, System.currentTimeMillis() - start);
+                    });
+            futures.put(name, future);
+        });
+
+        List<BackendResult> results = new ArrayList<>();
+        futures.values().forEach(future -> results.add(future.join()));
+
+        int topK = req.getRetrievalSetting() != null && req.getRetrievalSetting().getTopK() != null
+                ? req.getRetrievalSetting().getTopK() : 5;
+        DifyKnowledgeResp resp = new DifyKnowledgeResp();
+        resp.setRecords(fuse(results, topK));
+
+        log.info("联合检索完成，耗时: {}ms, 返回记录数: {}, 各后端: {}",
+                System.currentTimeMillis() - start, resp.getRecords().size(), results.stream()
+                        .map(r -> r.getName() + (r.isTimedOut() ? "(超时)" : "") + "=" + r.getRecords().size() + "条/" + r.getElapsedMillis() + "ms")
+                        .toList());
+        return resp;
+    }
+
+    /**
+     * 带引用高亮的检索需要按RAGFlow的片段序号持久化运行记录，仍由RAGFlow后端处理
+     */
+    @Override
+    public DifyKnowledgeHttpResp retrieveKnowledgeHttp(DifyKnowledgeHttpReq req) {
+        return backendServices.get(RAGFLOW).retrieveKnowledgeHttp(req);
+    }
+
+    /**
+     * 提交单个后端的检索任务，超时后以空结果完成并取消（中断）仍在执行的任务，
+     * 阻塞在HTTP读取上的任务由各后端客户端的读超时兜底结束；线程池已满时不等待，直接按超时处理
+     */
+    private CompletableFuture<BackendResult> submitBackend(String name, DifyKnowledgeService service, DifyKnowledgeReq req,
+                                                           long timeoutMillis) {
+        CompletableFuture<BackendResult> future = new CompletableFuture<>();
+        Future<?> task;
+        try {
+            task = executor.submit(() -> {
+                try {
+                    future.complete(callBackend(name, service, req));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("联合检索线程池已满，跳过后端[{}]", name);
+            return CompletableFuture.completedFuture(new BackendResult(name, Collections.emptyList(), true, 0L));
+        }
+
+        BackendResult timeoutResult = new BackendResult(name, Collections.emptyList(), true, timeoutMillis);
+        future.completeOnTimeout(timeoutResult, timeoutMillis, TimeUnit.MILLISECONDS)
+                .whenComplete((result, e) -> {
+                    if (result == timeoutResult) {
+                        task.cancel(true);
+                    }
+                });
+        return future;
+    }
+
+    private BackendResult callBackend(String name, DifyKnowledgeService service, DifyKnowledgeReq req) {
+        long start = System.currentTimeMillis();
+        DifyKnowledgeResp resp = service.retrieveKnowledge(req);
+        List<DifyKnowledgeResp.Record> records = resp == null || resp.getRecords() == null
+                ? Collections.emptyList() : resp.getRecords();
+        return new BackendResult(name, records, false, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 融合各后端结果：
+     * 1. 后端内按分数排序并做min-max归一化，消除不同后端分数尺度的差异；
+     * 2. 以标题和内容识别同一文本块，按 weight / (k + rank) 累加RRF得分；
+     * 3. 按RRF得分排序取前topK，记录的分数取各后端归一化分数的最大值
+     */
+    private List<DifyKnowledgeResp.Record> fuse(List<BackendResult> results, int topK) {
+        int rrfK = federatedRetrievalConfig.getRrfK();
+        Map<String, FusedRecord> fused = new LinkedHashMap<>();
+
+        for (BackendResult result : results) {
+            List<DifyKnowledgeResp.Record> records = new ArrayList<>(result.getRecords());
+            if (records.isEmpty()) {
+                continue;
+            }
+            records.sort(Comparator.comparingDouble(Federated2DifyKnowledgeServiceImpl::scoreOf).reversed());
+
+            double max = scoreOf(records.get(0));
+            double min = scoreOf(records.get(records.size() - 1));
+            double weight = federatedRetrievalConfig.getBackends().get(result.getName()).getWeight();
+
+            for (int i = 0; i < records.size(); i++) {
+                DifyKnowledgeResp.Record record = records.get(i);
+                double normalized = max > min
+                        ? (scoreOf(record) - min) / (max - min)
+                        : Math.min(1.0, Math.max(0.0, scoreOf(record)));
+
+                String key = (record.getTitle() == null ? "" : record.getTitle()) + "\n"
+                        + (record.getContent() == null ? "" : record.getContent());
+                FusedRecord fusedRecord = fused.computeIfAbsent(key, k -> new FusedRecord(record));
+                fusedRecord.add(result.getName(), weight / (rrfK + i + 1), normalized);
+            }
+        }
+
+        return fused.values().stream()
+                .sorted(Comparator.comparingDouble(FusedRecord::getRrfScore).reversed())
+                .limit(topK)
+                .map(FusedRecord::toRecord)
+                .toList();
+    }
+
+    private static double scoreOf(DifyKnowledgeResp.Record record) {
+        return record.getScore() == null ? 0.0 : record.getScore();
+    }
+
+    /**
+     * 单个后端的检索结果
+     */
+    @Data
+    @AllArgsConstructor
+    private static class BackendResult {
+        private String name;
+        private List<DifyKnowledgeResp.Record> records;
+        private boolean timedOut;
+        private long elapsedMillis;
+    }
+
+    /**
+     * 融合中的文本块
+     */
+    @Data
+    private static class FusedRecord {
+        private final DifyKnowledgeResp.Record record;
+        private final List<String> sources = new ArrayList<>();
+        private double rrfScore;
+        private double score;
+
+        void add(String source, double rrf, double normalized) {
+            sources.add(source);
+            rrfScore += rrf;
+            score = Math.max(score, normalized);
+        }
+
+        DifyKnowledgeResp.Record toRecord() {
+            DifyKnowledgeResp.Record fusedRecord = new DifyKnowledgeResp.Record();
+            fusedRecord.setContent(record.getContent());
+            fusedRecord.setTitle(record.getTitle());
+            fusedRecord.setScore(score);
+
+            // 在元数据中标注结果来源的后端
+            Map<String, Object> metadata = new HashMap<>();
+            if (record.getMetadata() instanceof Map<?, ?> original) {
+                original.forEach((k, v) -> metadata.put(String.valueOf(k), v));
+            }
+            metadata.put("sources", sources);
+            fusedRecord.setMetadata(metadata);
+            return fusedRecord;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.diit.ds.rag.service.impl;
 
+import com.diit.ds.rag.cache.PreviewFileCache;
+import com.diit.ds.rag.config.PreviewCacheConfig;
 import com.diit.ds.rag.domain.dto.KnowledgeSearchResultDTO;
 import com.diit.ds.rag.domain.dto.WorkflowChunkDTO;
 import com.diit.ds.rag.domain.dto.WorkflowDocAggDTO;
@@ -11,19 +13,21 @@ import com.diit.ds.domain.pojo.entity.WorkflowDocAgg;
 import com.diit.ds.rag.service.*;
 import com.diit.ds.rag.structmapper.WorkflowChunkSM;
 import com.diit.ds.rag.structmapper.WorkflowDocAggSM;
+import com.github.benmanes.caffeine.cache.Cache;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
-import org.springframework.util.DigestUtils;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -36,13 +40,14 @@ public class KnowledgeFilePreviewServiceImpl implements KnowledgeFilePreviewServ
     private final WorkflowRunService workflowRunService;
     private final WorkflowChunkService workflowChunkService;
     private final WorkflowDocAggService workflowDocAggService;
+    private final PreviewFileCache previewFileCache;
+    private final PreviewCacheConfig previewCacheConfig;
+    private final Cache<String, KnowledgeSearchResultDTO> knowledgeQueryInfoCache;
     
-    @Value("${file.preview-path:/app/preview/}")
-    private String previewPath;
+    // 正在从数据库加载知识查询信息的运行（workFlowRunId -> 本次加载的标记），失效时移除，
+    // 加载完成时标记仍在才写入缓存，只有同一运行的写入会阻止缓存
+    private final ConcurrentHashMap<String, Object> queryInfoLoads = new ConcurrentHashMap<>();
     
-    @Value("${file.preview-mapping:/preview/}")
-    private String previewMapping;
-
     // DIOS文件预览URL配置
     @Value("${diit.dios.api.url}")
     private String diosUrl;
@@ -50,9 +55,6 @@ public class KnowledgeFilePreviewServiceImpl implements KnowledgeFilePreviewServ
     private String diosFilePreviewUrlPrefix;
     private String diosFilePreviewUrlSuffix = "/file-preview";
     
-    // 文件名最大长度限制，设置为较小的值以确保安全
-    private static final int MAX_FILENAME_LENGTH = 100;
-    
     @Override
     public void afterPropertiesSet() throws Exception {
         diosFilePreviewUrlPrefix = diosUrl + "/data-center/#/overview/resource/info-view/data/";
@@ -62,7 +64,7 @@ public class KnowledgeFilePreviewServiceImpl implements KnowledgeFilePreviewServ
     /**
      * 获取文件预览URL
      * 
-     * 该方法负责将文档下载到预览目录，并返回Nginx可访问的URL
+     * 该方法负责将文档下载到预览缓存目录，并返回Nginx可访问的URL
      *
      * @param documentId 文档ID
      * @return 文件预览响应，包含预览URL
@@ -82,32 +84,17 @@ public class KnowledgeFilePreviewServiceImpl implements KnowledgeFilePreviewServ
         
         // 获取文件名称
         String fileName = document.getName();
-        String safeFileName = formatSafeFileName(documentId, fileName);
-        
-        // 创建预览目录
-        createPreviewDirectory();
-        
-        // 构建文件保存路径
-        File previewFile = new File(previewPath, safeFileName);
-        
-        // 如果文件已存在，直接返回URL（避免重复下载）
-        if (previewFile.exists()) {
-            log.info("文件已存在，直接返回预览URL: {}", previewFile.getAbsolutePath());
-            return buildPreviewResponse(documentId, fileName, safeFileName);
-        }
         
-        try (FileOutputStream outputStream = new FileOutputStream(previewFile)) {
-            // 调用KnowledgeFileService下载文件到预览目录
-            String downloadedFileName = knowledgeFileService.downloadFile(documentId, outputStream);
+        try {
+            // 文件已缓存时直接返回URL，否则下载到预览缓存目录（进行中的下载会等待其完成）
+            String previewUrl = downloadToCache(document);
             
-            if (downloadedFileName == null) {
+            if (previewUrl == null) {
                 log.error("文件下载失败: {}", documentId);
                 throw new FileNotFoundException("文件下载失败");
             }
             
-            log.info("文件下载成功: {}, 保存路径: {}", safeFileName, previewFile.getAbsolutePath());
-            
-            return buildPreviewResponse(documentId, fileName, safeFileName);
+            return buildPreviewResponse(documentId, fileName, previewUrl);
         } catch (IOException e) {
             log.error("文件预览处理异常: {}", e.getMessage(), e);
             throw new FileNotFoundException("文件预览处理异常: " + e.getMessage());
@@ -116,10 +103,24 @@ public class KnowledgeFilePreviewServiceImpl implements KnowledgeFilePreviewServ
 
     @Override
     public KnowledgeSearchResultDTO getKnowledgeQueryInfo(String workFlowRunId) {
-        // 根据work_flow_run_id获取知识查询的相关信息
-        KnowledgeSearchResultDTO resultDTO = new KnowledgeSearchResultDTO();
-        resultDTO.setWorkFlowRunId(workFlowRunId);
+        // 同一运行追加检索结果时由写入方失效缓存，预览文件仍可访问时直接返回缓存结果
+        KnowledgeSearchResultDTO cachedResult = knowledgeQueryInfoCache.getIfPresent(workFlowRunId);
+        if (cachedResult != null && isPreviewAvailable(cachedResult)) {
+            log.debug("命中知识查询信息缓存: {}", workFlowRunId);
+            return cachedResult;
+        }
         
+        Object loadMarker = new Object();
+        queryInfoLoads.put(workFlowRunId, loadMarker);
+        try {
+            return loadKnowledgeQueryInfo(workFlowRunId, loadMarker);
+        } finally {
+            queryInfoLoads.remove(workFlowRunId, loadMarker);
+        }
+    }
+
+    private KnowledgeSearchResultDTO loadKnowledgeQueryInfo(String workFlowRunId, Object loadMarker) {
+        // 根据work_flow_run_id获取知识查询的相关信息
         // 1. 获取查询片段数据
         List<WorkflowChunk> chunks = workflowChunkService.lambdaQuery()
                 .eq(WorkflowChunk::getWorkFlowRunId, workFlowRunId)
@@ -135,11 +136,50 @@ public class KnowledgeFilePreviewServiceImpl implements KnowledgeFilePreviewServ
         // 如果没有查询结果，直接返回空数据
         if (CollectionUtils.isEmpty(chunks) && CollectionUtils.isEmpty(docAggs)) {
             log.warn("未找到workFlowRunId为{}的知识查询记录", workFlowRunId);
+            KnowledgeSearchResultDTO resultDTO = new KnowledgeSearchResultDTO();
+            resultDTO.setWorkFlowRunId(workFlowRunId);
             resultDTO.setWorkflowChunks(Collections.emptyList());
             resultDTO.setWorkflowChunksFiles(Collections.emptyList());
             return resultDTO;
         }
         
+        KnowledgeSearchResultDTO resultDTO = buildKnowledgeQueryInfo(workFlowRunId, chunks, docAggs);
+        // 查询期间该运行有结果写入时不缓存，避免缓存写入前的部分数据；
+        // 检查标记和写入缓存在同一个compute中进行，与失效互斥
+        queryInfoLoads.computeIfPresent(workFlowRunId, (runId, marker) -> {
+            if (marker == loadMarker) {
+                knowledgeQueryInfoCache.put(runId, resultDTO);
+            }
+            return marker;
+        });
+        
+        return resultDTO;
+    }
+
+    @Override
+    public void evictKnowledgeQueryInfo(String workFlowRunId) {
+        if (workFlowRunId == null) {
+            return;
+        }
+        // 移除进行中加载的标记并失效缓存，失效前已开始的查询不会把旧数据写回缓存
+        queryInfoLoads.compute(workFlowRunId, (runId, marker) -> {
+            knowledgeQueryInfoCache.invalidate(runId);
+            return null;
+        });
+    }
+
+    /**
+     * 组装知识查询信息
+     *
+     * @param workFlowRunId 工作流运行ID
+     * @param chunks 文档片段
+     * @param docAggs 文档聚合
+     * @return 知识查询信息
+     */
+    private KnowledgeSearchResultDTO buildKnowledgeQueryInfo(String workFlowRunId, List<WorkflowChunk> chunks, List<WorkflowDocAgg> docAggs) {
+        KnowledgeSearchResultDTO resultDTO = new KnowledgeSearchResultDTO();
+        resultDTO.setWorkFlowRunId(workFlowRunId);
+        
         // 3. 使用MapStruct将实体转换为DTO
         List<WorkflowChunkDTO> chunkDTOs = new ArrayList<>();
         Map<String, String> docPreviewUrlMap = new HashMap<>();
@@ -201,6 +241,24 @@ public class KnowledgeFilePreviewServiceImpl implements KnowledgeFilePreviewServ
         
         return resultDTO;
     }
+
+    /**
+     * 判断缓存结果中的本地预览文件是否都仍可访问
+     * 预览文件被淘汰后需要重新走完整流程下载
+     */
+    private boolean isPreviewAvailable(KnowledgeSearchResultDTO resultDTO) {
+        for (WorkflowDocAggDTO docAggDTO : resultDTO.getWorkflowChunksFiles()) {
+            if (!previewFileCache.isAvailable(docAggDTO.getDocId(), docAggDTO.getPreviewUrl())) {
+                return false;
+            }
+        }
+        for (WorkflowChunkDTO chunkDTO : resultDTO.getWorkflowChunks()) {
+            if (!previewFileCache.isAvailable(chunkDTO.getDocumentId(), chunkDTO.getPreviewUrl())) {
+                return false;
+            }
+        }
+        return true;
+    }
     
     /**
      * 为多个文档生成预览URL，确保重复文件只生成一次URL
@@ -231,58 +289,87 @@ public class KnowledgeFilePreviewServiceImpl implements KnowledgeFilePreviewServ
             return docPreviewUrlMap;
         }
         
-        // 创建预览目录
-        createPreviewDirectory();
-        
-        // 为每个文档生成预览URL
+        // 并发下载未缓存的文档，同时下载数由预取线程池限制
+        Map<String, CompletableFuture<String>> prefetchFutures = new LinkedHashMap<>();
+        Map<String, Document> documentsById = new HashMap<>();
         for (Document document : documents) {
-            String documentId = document.getId();
-            String fileName = document.getName();
-            String safeFileName = formatSafeFileName(documentId, fileName);
-            
-            // 构建文件保存路径
-            File previewFile = new File(previewPath, safeFileName);
+            prefetchFutures.put(document.getId(), previewFileCache.prefetch(document, this::downloadDocument));
+            documentsById.put(document.getId(), document);
+        }
+        
+        // 异步预取模式：直接返回预览URL，文件在后台继续下载，访问时会等待下载完成；
+        // 未能提交预取的文档在下次查询时由isPreviewAvailable发现文件不存在后重新预取
+        if (previewCacheConfig.isAsyncPrefetch()) {
+            for (Document document : documents) {
+                docPreviewUrlMap.put(document.getId(), previewFileCache.previewUrlOf(document));
+            }
+            return docPreviewUrlMap;
+        }
+        
+        // 等待所有下载完成后生成预览URL
+        for (Map.Entry<String, CompletableFuture<String>> entry : prefetchFutures.entrySet()) {
+            String documentId = entry.getKey();
             
             try {
-                // 如果文件已存在，直接获取URL（避免重复下载）
-                if (previewFile.exists()) {
-                    log.info("文件已存在，直接返回预览URL: {}", previewFile.getAbsolutePath());
-                    String previewUrl = previewMapping + safeFileName;
-                    docPreviewUrlMap.put(documentId, previewUrl);
+                String previewUrl = entry.getValue().join();
+                
+                if (previewUrl == null) {
+                    log.error("文件下载失败: {}", documentId);
                     continue;
                 }
                 
-                // 下载文件并生成URL
-                try (FileOutputStream outputStream = new FileOutputStream(previewFile)) {
-                    // 调用KnowledgeFileService下载文件到预览目录
-                    String downloadedFileName = knowledgeFileService.downloadFile(documentId, outputStream);
-                    
-                    if (downloadedFileName == null) {
-                        log.error("文件下载失败: {}", documentId);
-                        continue;
-                    }
-                    
-                    log.info("文件下载成功: {}, 保存路径: {}", safeFileName, previewFile.getAbsolutePath());
-                    
-                    // 构建预览URL
-                    String previewUrl = previewMapping + safeFileName;
-                    docPreviewUrlMap.put(documentId, previewUrl);
+                docPreviewUrlMap.put(documentId, previewUrl);
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RejectedExecutionException) {
+                    // 预取队列已满，本次请求本就等待全部下载完成，改为按需下载
+                    downloadOnDemand(documentsById.get(documentId), docPreviewUrlMap);
+                } else {
+                    log.error("文件预览处理异常: {}", documentId, e.getCause());
                 }
-            } catch (IOException e) {
-                log.error("文件预览处理异常: {}", e.getMessage(), e);
             }
         }
         
         return docPreviewUrlMap;
     }
 
+    /**
+     * 在当前线程下载未能提交预取的文档，成功时写入预览URL
+     */
+    private void downloadOnDemand(Document document, Map<String, String> docPreviewUrlMap) {
+        try {
+            String previewUrl = downloadToCache(document);
+            if (previewUrl == null) {
+                log.error("文件下载失败: {}", document.getId());
+                return;
+            }
+            docPreviewUrlMap.put(document.getId(), previewUrl);
+        } catch (IOException e) {
+            log.error("文件预览处理异常: {}", document.getId(), e);
+        }
+    }
+
+    /**
+     * 下载文档到预览缓存目录并登记
+     * 同一文档的并发下载由缓存合并为一次，文件完整写入后才会返回URL
+     *
+     * @param document 文档实体
+     * @return 预览URL，下载失败时返回null
+     */
+    private String downloadToCache(Document document) throws IOException {
+        return previewFileCache.materialize(document, this::downloadDocument);
+    }
+
+    /**
+     * 调用KnowledgeFileService下载文件到预览目录
+     */
+    private boolean downloadDocument(Document document, OutputStream outputStream) {
+        return knowledgeFileService.downloadFile(document.getId(), outputStream) != null;
+    }
+
     /**
      * 构建预览响应
      */
-    private FilePreviewResp buildPreviewResponse(String documentId, String fileName, String safeFileName) {
-        // 构建由Nginx代理的预览URL
-        String previewUrl = previewMapping + safeFileName;
-        
+    private FilePreviewResp buildPreviewResponse(String documentId, String fileName, String previewUrl) {
         // 获取文件类型
         String fileType = getFileType(fileName);
         
@@ -296,53 +383,6 @@ public class KnowledgeFilePreviewServiceImpl implements KnowledgeFilePreviewServ
         return resp;
     }
     
-    /**
-     * 创建预览文件目录
-     */
-    private void createPreviewDirectory() {
-        File directory = new File(previewPath);
-        if (!directory.exists()) {
-            boolean created = directory.mkdirs();
-            if (created) {
-                log.info("创建预览目录成功: {}", directory.getAbsolutePath());
-            } else {
-                log.warn("创建预览目录失败: {}", directory.getAbsolutePath());
-            }
-        }
-    }
-    
-    /**
-     * 格式化安全的文件名
-     * 始终使用MD5哈希作为文件名基础，避免特殊字符和长度问题
-     * 
-     * @param documentId 文档ID
-     * @param originalFileName 原始文件名
-     * @return 格式化后的安全文件名
-     */
-    private String formatSafeFileName(String documentId, String originalFileName) {
-        if (originalFileName == null || originalFileName.isEmpty()) {
-            return documentId + "_unknown";
-        }
-        
-        // 获取文件扩展名
-        String extension = "";
-        int lastDotIndex = originalFileName.lastIndexOf('.');
-        if (lastDotIndex > 0) {
-            extension = originalFileName.substring(lastDotIndex).toLowerCase();
-        }
-        
-        // 始终使用MD5哈希生成安全的文件名
-        String md5FileName = DigestUtils.md5DigestAsHex(originalFileName.getBytes(StandardCharsets.UTF_8));
-        
-        // 组合安全的文件名：documentId_md5hash.extension
-        String safeFileName = documentId + "_" + md5FileName + extension;
-        
-        // 记录文件名映射关系，便于排查问题
-        log.debug("文件名映射: {} -> {}", originalFileName, safeFileName);
-        
-        return safeFileName;
-    }
-    
     /**
      * 获取文件类型
      * 
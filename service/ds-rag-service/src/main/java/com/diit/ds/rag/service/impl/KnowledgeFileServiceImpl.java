@@ -4,6 +4,8 @@ import com.diit.ds.common.context.UserContext;
 import com.diit.ds.common.exception.FileNotFoundException;
 import com.diit.ds.domain.pojo.entity.Document;
 import com.diit.ds.domain.pojo.entity.KnowledgeTreeNode;
+import com.diit.ds.rag.cache.PreviewFileCache;
+import com.diit.ds.rag.cache.RetrievalResultCache;
 import com.diit.ds.rag.domain.req.*;
 import com.diit.ds.rag.domain.resp.*;
 import com.diit.ds.rag.service.*;
@@ -19,6 +21,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -40,6 +43,8 @@ public class KnowledgeFileServiceImpl implements KnowledgeFileService {
     private final RAGFlowFileAPIService ragFlowFileAPIService;
     private final RAGFlowFileChunkAPIService ragFlowFileChunkAPIService;
     private final ExecutorService executorService;
+    private final PreviewFileCache previewFileCache;
+    private final RetrievalResultCache retrievalResultCache;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     /**
@@ -201,6 +206,16 @@ public class KnowledgeFileServiceImpl implements KnowledgeFileService {
             
         }
 
+        // 知识库新增文档，相关检索结果缓存失效
+        retrievalResultCache.invalidateDataset(datasetId);
+
+        // 同ID文档被重新上传时，旧的预览文件需要失效
+        if (uploadResp != null && uploadResp.getData() != null) {
+            previewFileCache.invalidateAll(uploadResp.getData().stream()
+                    .map(RAGFlowFileUploadResp.FileInfo::getId)
+                    .collect(Collectors.toList()));
+        }
+
         // 更新节点及其父节点的文档数量
         try {
             // 增加的文档数量
@@ -538,9 +553,13 @@ public class KnowledgeFileServiceImpl implements KnowledgeFileService {
             // 调用RAGFlow API删除文件
             if (datasetId != null) {
                 resp = ragFlowFileAPIService.deleteFiles(datasetId, req);
+                retrievalResultCache.invalidateDataset(datasetId);
             }
         }
         
+        // 清理已删除文档的预览文件
+        previewFileCache.invalidateAll(req.getIds());
+        
         // 更新各节点及其父节点的文档数量
         for (Map.Entry<String, Integer> entry : nodeDocumentCountMap.entrySet()) {
             String nodeId = entry.getKey();
@@ -586,6 +605,8 @@ public class KnowledgeFileServiceImpl implements KnowledgeFileService {
             // 调用RAGFlow API启动解析任务
             if (datasetId != null) {
                 resp = ragFlowFileAPIService.startParseTask(datasetId, req);
+                // 解析过程中分块陆续可检索，解析结束前不缓存该知识库的检索结果，结束后再失效
+                retrievalResultCache.markParsing(datasetId, Collections.singletonList(documentId));
             }
         }
         return resp;
@@ -619,6 +640,8 @@ public class KnowledgeFileServiceImpl implements KnowledgeFileService {
             // 调用RAGFlow API停止解析任务
             if (datasetId != null) {
                 resp = ragFlowFileAPIService.stopParseTask(datasetId, req);
+                retrievalResultCache.finishParsing(Collections.singletonList(documentId));
+                retrievalResultCache.invalidateDataset(datasetId);
             }
         }
         return resp;
@@ -652,7 +675,10 @@ public class KnowledgeFileServiceImpl implements KnowledgeFileService {
         // 获取数据集ID
         String datasetId = documentService.getDatasetId(documentId);
         // 调用RAGFlow API更新分块内容
-        return ragFlowFileChunkAPIService.updateChunk(datasetId, documentId, chunkId, req);
+        RagFlowChunkUpdateResp resp = ragFlowFileChunkAPIService.updateChunk(datasetId, documentId, chunkId, req);
+        // 分块内容变化，相关检索结果缓存失效
+        retrievalResultCache.invalidateDataset(datasetId);
+        return resp;
     }
 
     /**
@@ -2,6 +2,7 @@ package com.diit.ds.rag.service.impl;
 
 import com.baomidou.dynamic.datasource.annotation.DS;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.diit.ds.rag.cache.DatasetIdSnapshot;
 import com.diit.ds.domain.mapper.KnowledgeTreeNodeMapper;
 import com.diit.ds.rag.domain.dto.KnowledgeTreeNodeDTO;
 import com.diit.ds.rag.domain.dto.KnowledgeTreeStatisticDTO;
@@ -51,6 +52,7 @@ public class KnowledgeTreeNodeServiceImpl extends ServiceImpl<KnowledgeTreeNodeM
     private final DocumentService documentService;
     private final KnowledgebaseService knowledgebaseService;
     private final ObjectMapper objectMapper;
+    private final DatasetIdSnapshot datasetIdSnapshot;
 
     @Override
     @Transactional(rollbackFor = Exception.class)
@@ -84,6 +86,7 @@ public class KnowledgeTreeNodeServiceImpl extends ServiceImpl<KnowledgeTreeNodeM
             }
             log.info("知识树节点创建成功，ID: {}, RAGFlow数据集ID: {}, 类型: {}, 自动选择: {}", 
                     knowledgeTreeNode.getId(), knowledgeTreeNode.getKdbId(), nodeType, createReq.getAutoSelect());
+            datasetIdSnapshot.markChanged();
             return knowledgeTreeNode;
         } else {
             handleRAGFlowDatasetCreationFailure(resp);
@@ -480,6 +483,8 @@ public class KnowledgeTreeNodeServiceImpl extends ServiceImpl<KnowledgeTreeNodeM
             // 更新数据库
             updateById(knowledgeTreeNode);
             log.info("知识树节点更新成功，ID: {}, RAGFlow数据集ID: {}", knowledgeTreeNode.getId(), existingNode.getKdbId());
+            // 节点可能被移动到其他父节点下
+            datasetIdSnapshot.markChanged();
             return knowledgeTreeNode;
         } else {
             log.error("更新RAGFlow数据集失败: {}", resp != null ? resp.getMessage() : "响应为空");
@@ -529,6 +534,7 @@ public class KnowledgeTreeNodeServiceImpl extends ServiceImpl<KnowledgeTreeNodeM
             removeByIds(allNodeIds);
             log.info("知识树节点及其子节点删除成功，根节点ID: {}, 删除节点总数: {}, RAGFlow数据集ID列表: {}",
                     id, allNodeIds.size(), allKdbIds);
+            datasetIdSnapshot.markChanged();
 
             // 更新父节点的文档数量
             if (parentId != null && !parentId.isEmpty() && !parentId.equals("0") && documentNum > 0) {
@@ -599,6 +605,7 @@ public class KnowledgeTreeNodeServiceImpl extends ServiceImpl<KnowledgeTreeNodeM
             // 从数据库中批量删除记录
             removeByIds(ids);
             log.info("批量删除知识树节点成功，节点ID列表: {}, RAGFlow数据集ID列表: {}", ids, kdbIds);
+            datasetIdSnapshot.markChanged();
 
             // 更新所有受影响的父节点的文档数量
             for (Map.Entry<String, Integer> entry : parentDocumentNumMap.entrySet()) {
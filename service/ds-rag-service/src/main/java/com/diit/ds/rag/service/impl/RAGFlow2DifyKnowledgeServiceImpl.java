@@ -1,19 +1,20 @@
 package com.diit.ds.rag.service.impl;
 
+import com.diit.ds.rag.cache.DatasetIdSnapshot;
+import com.diit.ds.rag.cache.RetrievalResultCache;
 import com.diit.ds.rag.domain.req.DifyKnowledgeHttpReq;
 import com.diit.ds.rag.domain.req.DifyKnowledgeReq;
 import com.diit.ds.rag.domain.req.RAGFlowKnowledgeReq;
 import com.diit.ds.rag.domain.resp.DifyKnowledgeHttpResp;
 import com.diit.ds.rag.domain.resp.DifyKnowledgeResp;
 import com.diit.ds.rag.domain.resp.RAGFlowKnowledgeResp;
-import com.diit.ds.domain.pojo.entity.KnowledgeTreeNode;
 import com.diit.ds.domain.pojo.entity.WorkflowChunk;
 import com.diit.ds.domain.pojo.entity.WorkflowDocAgg;
 import com.diit.ds.domain.pojo.entity.WorkflowRun;
 import com.diit.ds.rag.service.DifyKnowledgeService;
-import com.diit.ds.rag.service.KnowledgeTreeNodeService;
 import com.diit.ds.rag.service.RAGFlowDBAPIService;
-import com.diit.ds.rag.service.WorkflowRunService;
+import com.diit.ds.rag.task.PreviewWarmupTask;
+import com.diit.ds.rag.task.WorkflowRunPersistTask;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
@@ -36,11 +37,11 @@ import java.util.Map;
 public class RAGFlow2DifyKnowledgeServiceImpl implements DifyKnowledgeService {
 
     private final RAGFlowDBAPIService ragFlowDBAPIService;
-    private final KnowledgeTreeNodeService knowledgeTreeNodeService;
-    private final WorkflowRunService workflowRunService;
-    private final WorkflowDocAggServiceImpl workflowDocAggService;
-    private final WorkflowChunkServiceImpl workflowChunkService;
+    private final RetrievalResultCache retrievalResultCache;
+    private final DatasetIdSnapshot datasetIdSnapshot;
+    private final WorkflowRunPersistTask workflowRunPersistTask;
     private final ObjectMapper objectMapper;
+    private final PreviewWarmupTask previewWarmupTask;
 
     @Override
     public DifyKnowledgeResp retrieveKnowledge(DifyKnowledgeReq req) {
@@ -48,8 +49,8 @@ public class RAGFlow2DifyKnowledgeServiceImpl implements DifyKnowledgeService {
             // 将Dify请求转换为RAGFlow请求
             RAGFlowKnowledgeReq ragFlowReq = convertToRAGFlowRequest(req);
 
-            // 调用RAGFlow API
-            RAGFlowKnowledgeResp ragFlowResp = ragFlowDBAPIService.retrieval(ragFlowReq);
+            // 调用RAGFlow API（相同检索条件命中缓存时直接返回）
+            RAGFlowKnowledgeResp ragFlowResp = retrievalResultCache.retrieve(ragFlowReq, ragFlowDBAPIService::retrieval);
 
             // 将RAGFlow响应转换为Dify响应
             return convertToDifyResponse(ragFlowResp);
@@ -65,8 +66,8 @@ public class RAGFlow2DifyKnowledgeServiceImpl implements DifyKnowledgeService {
         // 将Dify请求转换为RAGFlow请求
         RAGFlowKnowledgeReq ragFlowReq = convertToRAGFlowRequest(req);
 
-        // 调用RAGFlow API
-        RAGFlowKnowledgeResp ragFlowResp = ragFlowDBAPIService.retrieval(ragFlowReq);
+        // 调用RAGFlow API（相同检索条件命中缓存时直接返回）
+        RAGFlowKnowledgeResp ragFlowResp = retrievalResultCache.retrieve(ragFlowReq, ragFlowDBAPIService::retrieval);
 
         // 将RAGFlow响应转换为Dify响应
         DifyKnowledgeHttpResp difyResp = convertToDifyHttpResponse(ragFlowResp);
@@ -74,6 +75,8 @@ public class RAGFlow2DifyKnowledgeServiceImpl implements DifyKnowledgeService {
         // 根据work_flow_run_id，把此次查询的结果存储到数据库中，实现高亮效果
         persistRagFlowResponse(ragFlowResp, req.getWorkFlowRunId(), req.getQuery());
 
+        // 预热被引用文档的预览文件，用户打开引用时可直接命中缓存
+        previewWarmupTask.submit(ragFlowResp);
 
         return difyResp;
     }
@@ -87,11 +90,8 @@ public class RAGFlow2DifyKnowledgeServiceImpl implements DifyKnowledgeService {
         // 设置查询
         ragFlowReq.setQuestion(req.getQuery());
 
-        // 设置知识库ID
-        // 暴力查全库 以后再优化
-        List<KnowledgeTreeNode> allNodes = knowledgeTreeNodeService.getNodesByPid("0");
-        List<String> dbIds = allNodes.stream().map(KnowledgeTreeNode::getKdbId).toList();
-        ragFlowReq.setDatasetIds(dbIds);
+        // 设置知识库ID：查全库，使用维护好的全部知识库ID快照
+        ragFlowReq.setDatasetIds(datasetIdSnapshot.getDatasetIds());
 
         // 设置检索参数
         if (req.getRetrievalSetting() != null) {
@@ -122,10 +122,8 @@ public class RAGFlow2DifyKnowledgeServiceImpl implements DifyKnowledgeService {
 
         // 设置知识库ID
         if(req.getSelectAll()) {
-            // 暴力查全库
-            List<KnowledgeTreeNode> allNodes = knowledgeTreeNodeService.getNodesByPid("0");
-            List<String> dbIds = allNodes.stream().map(KnowledgeTreeNode::getKdbId).toList();
-            ragFlowReq.setDatasetIds(dbIds);
+            // 查全库，使用维护好的全部知识库ID快照，不访问数据库
+            ragFlowReq.setDatasetIds(datasetIdSnapshot.getDatasetIds());
         } else {
             // 只查询指定的知识库
             if (req.getKdbIds() == null || req.getKdbIds().isEmpty()) {
@@ -274,11 +272,9 @@ public class RAGFlow2DifyKnowledgeServiceImpl implements DifyKnowledgeService {
                 workflowRun.setTotal(ragFlowResp.getData().getTotal());
             }
             
-            workflowRunService.save(workflowRun);
-            
             // 2. 保存文档片段记录
+            List<WorkflowChunk> chunkList = new ArrayList<>();
             if (ragFlowResp.getData() != null && ragFlowResp.getData().getChunks() != null) {
-                List<WorkflowChunk> chunkList = new ArrayList<>();
 
                 Integer index = 1;
                 // 遍历文档片段
@@ -327,16 +323,11 @@ public class RAGFlow2DifyKnowledgeServiceImpl implements DifyKnowledgeService {
                     
                     chunkList.add(workflowChunk);
                 }
-                
-                if (!chunkList.isEmpty()) {
-                    workflowChunkService.saveBatch(chunkList);
-                }
             }
             
             // 3. 保存文档聚合记录
+            List<WorkflowDocAgg> docAggList = new ArrayList<>();
             if (ragFlowResp.getData() != null && ragFlowResp.getData().getDocAggs() != null) {
-                List<WorkflowDocAgg> docAggList = new ArrayList<>();
-                
                 for (RAGFlowKnowledgeResp.RespData.DocAgg docAgg : ragFlowResp.getData().getDocAggs()) {
                     WorkflowDocAgg workflowDocAgg = new WorkflowDocAgg();
                     workflowDocAgg.setWorkFlowRunId(workFlowRunId);
@@ -346,12 +337,11 @@ public class RAGFlow2DifyKnowledgeServiceImpl implements DifyKnowledgeService {
                     
                     docAggList.add(workflowDocAgg);
                 }
-                
-                if (!docAggList.isEmpty()) {
-                    workflowDocAggService.saveBatch(docAggList);
-                }
             }
             
+            // 4. 提交到写入队列，由后台线程批量写入数据库
+            workflowRunPersistTask.submit(workflowRun, chunkList, docAggList);
+            
             log.info("成功持久化RAGFlow响应数据，workFlowRunId: {}", workFlowRunId);
         } catch (Exception e) {
             log.error("持久化RAGFlow响应数据失败", e);
@@ -1,5 +1,7 @@
 package com.diit.ds.rag.service.impl;
 
+import com.diit.ds.common.resilience.AbortableRequest;
+import com.diit.ds.common.util.SimHashUtil;
 import com.diit.ds.rag.config.RAGFlowConfig;
 import com.diit.ds.rag.domain.req.RAGFlowDatasetCreateReq;
 import com.diit.ds.rag.domain.req.RAGFlowDatasetDeleteReq;
@@ -12,35 +14,439 @@ import com.diit.ds.rag.domain.resp.RAGFlowDatasetListResp;
 import com.diit.ds.rag.domain.resp.RAGFlowDatasetUpdateResp;
 import com.diit.ds.rag.domain.resp.RAGFlowKnowledgeResp;
 import com.diit.ds.rag.service.RAGFlowDBAPIService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.logging.log4j.util.Strings;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 /**
  * RAGFlowAPI调用实现类
  */
 @Slf4j
 @Service
 @RequiredArgsConstructor
-public class RAGFlowDBAPIServiceImpl implements RAGFlowDBAPIService {
+public class RAGFlowDBAPIServiceImpl implements RAGFlowDBAPIService, InitializingBean, DisposableBean {
     private static final String API_PREFIX = "/api/v1";
     private static final String RETRIEVAL_ENDPOINT = "/retrieval";
     private static final String DATASETS_ENDPOINT = "/datasets";
 
     private final RAGFlowConfig ragFlowConfig;
     private final RestTemplate restTemplate;
+    private final MeterRegistry meterRegistry;
+
+    // 分片检索线程池
+    private ThreadPoolExecutor shardExecutor;
+
+    // 对冲请求线程池，未开启对冲时为空
+    private ThreadPoolExecutor hedgeExecutor;
+
+    // 检索接口延迟直方图，用于计算对冲延迟
+    private Timer retrievalTimer;
+
+    private final Object hedgeBudgetLock = new Object();
+
+    private double hedgeTokens;
+
+    // 对冲结果计数：已发送、预算耗尽、主请求先返回、对冲请求先返回
+    private Counter hedgeSentCounter;
+    private Counter hedgeBudgetExhaustedCounter;
+    private Counter hedgePrimaryWonCounter;
+    private Counter hedgeWonCounter;
+
+    @Override
+    public void afterPropertiesSet() {
+        RAGFlowConfig.Hedging hedging = ragFlowConfig.getHedging();
+        retrievalTimer = Timer.builder("ragflow.api.latency")
+                .tag("endpoint", RETRIEVAL_ENDPOINT)
+                .publishPercentiles(0.5, 0.99, hedging.getPercentile())
+                .distributionStatisticExpiry(Duration.ofMinutes(5))
+                .register(meterRegistry);
+        hedgeSentCounter = hedgeCounter("sent");
+        hedgeBudgetExhaustedCounter = hedgeCounter("budget_exhausted");
+        hedgePrimaryWonCounter = hedgeCounter("primary_won");
+        hedgeWonCounter = hedgeCounter("hedge_won");
+
+        if (hedging.isEnabled()) {
+            // 线程池已满时拒绝而不是在调用线程执行，主请求改为直接调用，对冲请求计为预算耗尽
+            hedgeExecutor = new ThreadPoolExecutor(
+                    0,
+                    Math.max(2, hedging.getConcurrency()),
+                    60,
+                    TimeUnit.SECONDS,
+                    new SynchronousQueue<>(),
+                    new CustomizableThreadFactory("ragflow-hedge-"),
+                    new ThreadPoolExecutor.AbortPolicy());
+            log.info("RAGFlow检索请求对冲已开启，分位数: {}, 对冲比例上限: {}", hedging.getPercentile(), hedging.getBudgetRatio());
+        }
+
+        RAGFlowConfig.Sharding sharding = ragFlowConfig.getSharding();
+        if (sharding.isEnabled()) {
+            // 分片数超过并发数时由调用线程执行多出的分片
+            shardExecutor = new ThreadPoolExecutor(
+                    0,
+                    Math.max(1, sharding.getConcurrency()),
+                    60,
+                    TimeUnit.SECONDS,
+                    new SynchronousQueue<>(),
+                    new CustomizableThreadFactory("ragflow-shard-"),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            log.info("RAGFlow分片检索已开启，分片大小: {}, 并发数: {}", sharding.getShardSize(), sharding.getConcurrency());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (shardExecutor != null) {
+            shardExecutor.shutdownNow();
+        }
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdownNow();
+        }
+    }
 
     @Override
     public RAGFlowKnowledgeResp retrieval(RAGFlowKnowledgeReq req) {
         req.setRerankId(ragFlowConfig.getRerankId());
 
+        // 去重只作用于第一页：多取若干倍结果，去掉近似重复后截取所需条数
+        RAGFlowConfig.Dedup dedup = ragFlowConfig.getDedup();
+        if (dedup.isEnabled() && (req.getPage() == null || req.getPage() == 1) && req.getPageSize() != null) {
+            RAGFlowKnowledgeReq fetchReq = copyOf(req);
+            fetchReq.setPage(1);
+            fetchReq.setPageSize(req.getPageSize() * Math.max(1, dedup.getOverfetchFactor()));
+            return deduplicate(fetch(fetchReq), req.getPageSize(), dedup.getHammingThreshold());
+        }
+        return fetch(req);
+    }
+
+    /**
+     * 执行检索，知识库数量超过分片大小时分片执行
+     */
+    private RAGFlowKnowledgeResp fetch(RAGFlowKnowledgeReq req) {
+        int shardSize = Math.max(1, ragFlowConfig.getSharding().getShardSize());
+        if (shardExecutor != null && req.getDatasetIds() != null && req.getDatasetIds().size() > shardSize) {
+            return shardedRetrieval(req, shardSize);
+        }
+        return doRetrieval(req);
+    }
+
+    /**
+     * 分片检索：将知识库ID拆分为多组并发检索，再按相似度合并为全局的前N条
+     * 每个分片都取回全局所需的条数，保证合并结果与单次检索的排序一致
+     */
+    private RAGFlowKnowledgeResp shardedRetrieval(RAGFlowKnowledgeReq req, int shardSize) {
+        long start = System.currentTimeMillis();
+        int page = req.getPage() == null || req.getPage() < 1 ? 1 : req.getPage();
+        int pageSize = req.getPageSize() == null ? 10 : req.getPageSize();
+        int limit = page * pageSize;
+
+        List<String> datasetIds = req.getDatasetIds();
+        List<CompletableFuture<RAGFlowKnowledgeResp>> futures = new ArrayList<>();
+        for (int from = 0; from < datasetIds.size(); from += shardSize) {
+            RAGFlowKnowledgeReq shardReq = copyOf(req);
+            shardReq.setDatasetIds(new ArrayList<>(datasetIds.subList(from, Math.min(from + shardSize, datasetIds.size()))));
+            shardReq.setPage(1);
+            shardReq.setPageSize(limit);
+            futures.add(CompletableFuture.supplyAsync(() -> doRetrieval(shardReq), shardExecutor));
+        }
+
+        // 小顶堆保留相似度最高的limit条
+        PriorityQueue<RAGFlowKnowledgeResp.RespData.Chunk> heap = new PriorityQueue<>(
+                Comparator.comparingDouble(RAGFlowKnowledgeResp.RespData.Chunk::getSimilarity));
+        RAGFlowKnowledgeResp firstError = null;
+        int succeeded = 0;
+        int total = 0;
+        for (CompletableFuture<RAGFlowKnowledgeResp> future : futures) {
+            RAGFlowKnowledgeResp shardResp = future.join();
+            if (shardResp == null || shardResp.getCode() != 0) {
+                if (firstError == null) {
+                    firstError = shardResp;
+                }
+                continue;
+            }
+
+            succeeded++;
+            if (shardResp.getData() == null) {
+                continue;
+            }
+            total += shardResp.getData().getTotal();
+            if (shardResp.getData().getChunks() != null) {
+                for (RAGFlowKnowledgeResp.RespData.Chunk chunk : shardResp.getData().getChunks()) {
+                    heap.offer(chunk);
+                    if (heap.size() > limit) {
+                        heap.poll();
+                    }
+                }
+            }
+        }
+
+        if (succeeded == 0) {
+            log.error("RAGFlow分片检索全部失败，分片数: {}", futures.size());
+            return firstError;
+        }
+        if (succeeded < futures.size()) {
+            log.warn("RAGFlow分片检索部分失败，成功分片: {}/{}，返回部分结果且不缓存", succeeded, futures.size());
+        }
+
+        List<RAGFlowKnowledgeResp.RespData.Chunk> merged = new ArrayList<>(heap);
+        merged.sort(Comparator.comparingDouble(RAGFlowKnowledgeResp.RespData.Chunk::getSimilarity).reversed());
+        List<RAGFlowKnowledgeResp.RespData.Chunk> chunks = merged.subList(Math.min((page - 1) * pageSize, merged.size()), merged.size());
+
+        RAGFlowKnowledgeResp.RespData data = new RAGFlowKnowledgeResp.RespData();
+        data.setChunks(new ArrayList<>(chunks));
+        data.setDocAggs(aggregateDocs(chunks));
+        data.setTotal(total);
+
+        RAGFlowKnowledgeResp resp = new RAGFlowKnowledgeResp();
+        resp.setCode(0);
+        resp.setData(data);
+        resp.setPartial(succeeded < futures.size());
+        log.info("RAGFlow分片检索完成，知识库数: {}, 分片数: {}, 耗时: {}ms", datasetIds.size(), futures.size(), System.currentTimeMillis() - start);
+        return resp;
+    }
+
+    /**
+     * 近似重复去重：按相似度从高到低遍历，与已保留文本块的SimHash指纹距离在阈值内的视为重复并丢弃，
+     * 保留到limit条为止，被丢弃的位置由排名靠后的结果补足
+     */
+    private RAGFlowKnowledgeResp deduplicate(RAGFlowKnowledgeResp resp, int limit, int hammingThreshold) {
+        if (resp == null || resp.getCode() != 0 || resp.getData() == null || resp.getData().getChunks() == null) {
+            return resp;
+        }
+
+        List<RAGFlowKnowledgeResp.RespData.Chunk> candidates = new ArrayList<>(resp.getData().getChunks());
+        candidates.sort(Comparator.comparingDouble(RAGFlowKnowledgeResp.RespData.Chunk::getSimilarity).reversed());
+
+        List<RAGFlowKnowledgeResp.RespData.Chunk> kept = new ArrayList<>(limit);
+        List<Long> keptFingerprints = new ArrayList<>(limit);
+        int duplicates = 0;
+        for (RAGFlowKnowledgeResp.RespData.Chunk chunk : candidates) {
+            if (kept.size() >= limit) {
+                break;
+            }
+
+            // 优先使用RAGFlow的分词结果，没有时按原文字符计算
+            long fingerprint = chunk.getContentLtks() != null && !chunk.getContentLtks().isBlank()
+                    ? SimHashUtil.ofTokens(chunk.getContentLtks())
+                    : SimHashUtil.ofText(chunk.getContent());
+            boolean duplicate = keptFingerprints.stream()
+                    .anyMatch(keptFingerprint -> SimHashUtil.distance(keptFingerprint, fingerprint) <= hammingThreshold);
+            if (duplicate) {
+                duplicates++;
+                log.debug("丢弃近似重复文本块: {}, 文档: {}", chunk.getId(), chunk.getDocumentKeyword());
+                continue;
+            }
+
+            kept.add(chunk);
+            keptFingerprints.add(fingerprint);
+        }
+
+        if (duplicates > 0) {
+            log.info("检索结果去重，丢弃近似重复文本块: {} 条，返回: {} 条", duplicates, kept.size());
+        }
+        resp.getData().setChunks(kept);
+        resp.getData().setDocAggs(aggregateDocs(kept));
+        return resp;
+    }
+
+    /**
+     * 按合并后的文本块重新统计文档聚合，保持按出现次数降序
+     */
+    private List<RAGFlowKnowledgeResp.RespData.DocAgg> aggregateDocs(List<RAGFlowKnowledgeResp.RespData.Chunk> chunks) {
+        Map<String, RAGFlowKnowledgeResp.RespData.DocAgg> docAggMap = new LinkedHashMap<>();
+        for (RAGFlowKnowledgeResp.RespData.Chunk chunk : chunks) {
+            RAGFlowKnowledgeResp.RespData.DocAgg docAgg = docAggMap.computeIfAbsent(chunk.getDocumentId(), docId -> {
+                RAGFlowKnowledgeResp.RespData.DocAgg agg = new RAGFlowKnowledgeResp.RespData.DocAgg();
+                agg.setDocId(docId);
+                agg.setDocName(chunk.getDocumentKeyword());
+                return agg;
+            });
+            docAgg.setCount(docAgg.getCount() + 1);
+        }
+
+        List<RAGFlowKnowledgeResp.RespData.DocAgg> docAggs = new ArrayList<>(docAggMap.values());
+        docAggs.sort(Comparator.comparingInt(RAGFlowKnowledgeResp.RespData.DocAgg::getCount).reversed());
+        return docAggs;
+    }
+
+    private static RAGFlowKnowledgeReq copyOf(RAGFlowKnowledgeReq req) {
+        RAGFlowKnowledgeReq copy = new RAGFlowKnowledgeReq();
+        copy.setQuestion(req.getQuestion());
+        copy.setDatasetIds(req.getDatasetIds());
+        copy.setDocumentIds(req.getDocumentIds());
+        copy.setPage(req.getPage());
+        copy.setPageSize(req.getPageSize());
+        copy.setSimilarityThreshold(req.getSimilarityThreshold());
+        copy.setVectorSimilarityWeight(req.getVectorSimilarityWeight());
+        copy.setTopK(req.getTopK());
+        copy.setRerankId(req.getRerankId());
+        copy.setKeyword(req.getKeyword());
+        copy.setHighlight(req.getHighlight());
+        return copy;
+    }
+
+    /**
+     * 调用RAGFlow检索接口
+     */
+    private RAGFlowKnowledgeResp doRetrieval(RAGFlowKnowledgeReq req) {
+        if (hedgeExecutor == null) {
+            return timedRetrieval(req);
+        }
+
+        RAGFlowConfig.Hedging hedging = ragFlowConfig.getHedging();
+        long delayMillis = hedgeDelayMillis(hedging);
+        ExecutorCompletionService<RAGFlowKnowledgeResp> completionService = new ExecutorCompletionService<>(hedgeExecutor);
+        List<Future<RAGFlowKnowledgeResp>> attempts = new ArrayList<>(2);
+        List<AbortableRequest> requests = new ArrayList<>(2);
+        try {
+            attempts.add(submitAttempt(completionService, requests, req));
+        } catch (RejectedExecutionException e) {
+            // 对冲线程池已满，不再对冲，直接调用
+            return timedRetrieval(req);
+        }
+        grantHedgeToken(hedging);
+
+        try {
+            Future<RAGFlowKnowledgeResp> first = completionService.poll(delayMillis, TimeUnit.MILLISECONDS);
+            if (first == null) {
+                if (tryAcquireHedgeToken()) {
+                    try {
+                        attempts.add(submitAttempt(completionService, requests, req));
+                        log.info("RAGFlow检索超过{}ms未返回，发送对冲请求", delayMillis);
+                        hedgeSentCounter.increment();
+                    } catch (RejectedExecutionException e) {
+                        hedgeBudgetExhaustedCounter.increment();
+                    }
+                } else {
+                    hedgeBudgetExhaustedCounter.increment();
+                }
+                first = completionService.take();
+            }
+
+            if (attempts.size() > 1) {
+                (first == attempts.get(0) ? hedgePrimaryWonCounter : hedgeWonCounter).increment();
+            }
+            return first.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return errorResp("调用RAGFlow API被中断");
+        } catch (ExecutionException e) {
+            return errorResp("调用RAGFlow API失败: " + e.getCause().getMessage());
+        } finally {
+            // 关闭仍未返回的请求的连接，只中断线程不能打断阻塞的读取；已完成的请求不受影响
+            for (int i = 0; i < attempts.size(); i++) {
+                if (!attempts.get(i).isDone()) {
+                    requests.get(i).abort();
+                    attempts.get(i).cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * 提交一次检索请求，请求可通过登记的句柄中止
+     */
+    private Future<RAGFlowKnowledgeResp> submitAttempt(ExecutorCompletionService<RAGFlowKnowledgeResp> completionService,
+                                                       List<AbortableRequest> requests,
+                                                       RAGFlowKnowledgeReq req) {
+        AbortableRequest request = new AbortableRequest();
+        Future<RAGFlowKnowledgeResp> attempt = completionService.submit(() -> request.run(() -> timedRetrieval(req)));
+        requests.add(request);
+        return attempt;
+    }
+
+    /**
+     * 对冲延迟：按检索延迟直方图的分位数计算，样本不足时使用默认值
+     */
+    private long hedgeDelayMillis(RAGFlowConfig.Hedging hedging) {
+        double delay = hedging.getDefaultDelay().toMillis();
+        if (retrievalTimer.count() >= hedging.getMinSamples()) {
+            for (ValueAtPercentile percentile : retrievalTimer.takeSnapshot().percentileValues()) {
+                if (percentile.percentile() == hedging.getPercentile()) {
+                    delay = percentile.value(TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+        return (long) Math.min(hedging.getMaxDelay().toMillis(), Math.max(hedging.getMinDelay().toMillis(), delay));
+    }
+
+    /**
+     * 对冲预算：每个请求积累budgetRatio个令牌，发送对冲请求消耗一个，令牌最多积累10个
+     */
+    private void grantHedgeToken(RAGFlowConfig.Hedging hedging) {
+        synchronized (hedgeBudgetLock) {
+            hedgeTokens = Math.min(10.0, hedgeTokens + hedging.getBudgetRatio());
+        }
+    }
+
+    private boolean tryAcquireHedgeToken() {
+        synchronized (hedgeBudgetLock) {
+            if (hedgeTokens >= 1.0) {
+                hedgeTokens -= 1.0;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private Counter hedgeCounter(String outcome) {
+        return Counter.builder("ragflow.retrieval.hedge")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private static RAGFlowKnowledgeResp errorResp(String message) {
+        RAGFlowKnowledgeResp errorResp = new RAGFlowKnowledgeResp();
+        errorResp.setCode(500);
+        errorResp.setMessage(message);
+        return errorResp;
+    }
+
+    /**
+     * 调用RAGFlow检索接口并记录耗时，被取消的请求不计入延迟统计
+     */
+    private RAGFlowKnowledgeResp timedRetrieval(RAGFlowKnowledgeReq req) {
+        long start = System.nanoTime();
+        RAGFlowKnowledgeResp resp = callRetrieval(req);
+        if (!Thread.currentThread().isInterrupted()) {
+            retrievalTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        return resp;
+    }
+
+    /**
+     * 调用RAGFlow检索接口
+     */
+    private RAGFlowKnowledgeResp callRetrieval(RAGFlowKnowledgeReq req) {
         try {
             // 构建请求URL
             String url = ragFlowConfig.getBaseUrl() + API_PREFIX + RETRIEVAL_ENDPOINT;
@@ -68,12 +474,14 @@ public class RAGFlowDBAPIServiceImpl implements RAGFlowDBAPIService {
 
             return response;
         } catch (Exception e) {
-            log.error("调用RAGFlow API失败", e);
+            if (AbortableRequest.isCurrentAborted()) {
+                // 对冲中较慢的请求被主动中止，不是调用失败，结果也不会被使用
+                log.debug("RAGFlow检索请求已中止: {}", e.getMessage());
+            } else {
+                log.error("调用RAGFlow API失败", e);
+            }
             // 创建一个错误响应
-            RAGFlowKnowledgeResp errorResp = new RAGFlowKnowledgeResp();
-            errorResp.setCode(500);
-            errorResp.setMessage("调用RAGFlow API失败: " + e.getMessage());
-            return errorResp;
+            return errorResp("调用RAGFlow API失败: " + e.getMessage());
         }
     }
 
@@ -0,0 +1,62 @@
+package com.diit.ds.rag.task;
+
+import com.diit.ds.common.util.PgNotificationListener;
+import com.diit.ds.rag.cache.AgentKdbBindingCache;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+
+/**
+ * 智能体知识库绑定关系变化监听
+ *
+ * 在primary数据源上通过PostgreSQL LISTEN/NOTIFY同步各实例的绑定关系缓存：
+ * 通知内容为app_id时失效该智能体，内容为空时全量重新加载。
+ * 本服务不修改agent_kdb表，通知由表上的触发器发出（见sql/agent_kdb_notify.sql），任何途径的修改都会通知。
+ * 监听连接断开期间可能丢失通知，重新连接后全量重新加载，见{@link PgNotificationListener}
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AgentKdbChangeListener implements InitializingBean, DisposableBean {
+
+    private final DataSource dataSource;
+    private final AgentKdbBindingCache agentKdbBindingCache;
+
+    @Value("${rag.cache.agent-kdb.listen.enabled:true}")
+    private boolean enabled;
+
+    @Value("${rag.cache.agent-kdb.listen.channel:agent_kdb_changed}")
+    private String channel;
+
+    @Value("${rag.cache.agent-kdb.listen.poll-timeout-ms:5000}")
+    private int pollTimeoutMs;
+
+    @Value("${rag.cache.agent-kdb.listen.retry-interval-ms:10000}")
+    private long retryIntervalMs;
+
+    private PgNotificationListener listener;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled) {
+            log.info("智能体知识库绑定关系变化监听未开启，仅依赖定时刷新");
+            return;
+        }
+
+        listener = new PgNotificationListener(dataSource, channel, "智能体知识库绑定关系",
+                agentKdbBindingCache::invalidate, agentKdbBindingCache::reload, pollTimeoutMs, retryIntervalMs);
+        listener.start();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (listener != null) {
+            listener.stop();
+        }
+    }
+}
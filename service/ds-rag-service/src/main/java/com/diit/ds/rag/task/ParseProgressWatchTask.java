@@ -0,0 +1,65 @@
+package com.diit.ds.rag.task;
+
+import com.diit.ds.domain.pojo.entity.Document;
+import com.diit.ds.rag.cache.RetrievalResultCache;
+import com.diit.ds.rag.service.DocumentService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 文档解析进度检查任务
+ *
+ * 定时查询正在解析的文档的运行状态，解析结束（完成、失败、取消或文档已删除）后
+ * 使相关知识库的检索结果缓存失效，并恢复这些知识库的检索结果缓存
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ParseProgressWatchTask {
+
+    // RAGFlow文档运行状态：解析中
+    private static final String RUN_RUNNING = "1";
+
+    private final RetrievalResultCache retrievalResultCache;
+    private final DocumentService documentService;
+
+    @Scheduled(fixedDelayString = "${rag.cache.retrieval.parse-check-interval-ms:10000}")
+    public void checkParseProgress() {
+        Map<String, String> parsing = retrievalResultCache.parsingDocuments();
+        if (parsing.isEmpty()) {
+            return;
+        }
+
+        try {
+            Set<String> running = documentService.lambdaQuery()
+                    .select(Document::getId, Document::getRun)
+                    .in(Document::getId, parsing.keySet())
+                    .list()
+                    .stream()
+                    .filter(document -> RUN_RUNNING.equals(document.getRun()))
+                    .map(Document::getId)
+                    .collect(Collectors.toSet());
+
+            List<String> finished = new ArrayList<>();
+            for (String documentId : parsing.keySet()) {
+                if (!running.contains(documentId)) {
+                    finished.add(documentId);
+                }
+            }
+            if (!finished.isEmpty()) {
+                retrievalResultCache.finishParsing(finished);
+                log.info("文档解析结束，已失效相关检索结果缓存，文档数: {}", finished.size());
+            }
+        } catch (Exception e) {
+            log.error("检查文档解析进度失败: {}", e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.diit.ds.rag.task;
+
+import com.diit.ds.domain.pojo.entity.Document;
+import com.diit.ds.rag.cache.PreviewFileCache;
+import com.diit.ds.rag.config.PreviewCacheConfig;
+import com.diit.ds.rag.domain.resp.RAGFlowKnowledgeResp;
+import com.diit.ds.rag.service.DocumentService;
+import com.diit.ds.rag.service.KnowledgeFileService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 预览文件预热任务
+ *
+ * 检索完成后将被引用的文档放入预热队列，由后台线程按限速依次下载到预览缓存，
+ * 用户在回答生成完毕后打开引用时即可直接命中缓存
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PreviewWarmupTask implements InitializingBean, DisposableBean {
+
+    private final PreviewCacheConfig previewCacheConfig;
+    private final PreviewFileCache previewFileCache;
+    private final DocumentService documentService;
+    private final KnowledgeFileService knowledgeFileService;
+
+    private BlockingQueue<String> queue;
+
+    // 已在队列中的文档ID，用于去重
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+
+    private Thread worker;
+
+    @Override
+    public void afterPropertiesSet() {
+        PreviewCacheConfig.Warmup warmup = previewCacheConfig.getWarmup();
+        if (!warmup.isEnabled()) {
+            log.info("预览文件预热未开启");
+            return;
+        }
+
+        queue = new LinkedBlockingQueue<>(Math.max(1, warmup.getQueueCapacity()));
+        worker = new Thread(this::runWorker, "preview-warmup");
+        worker.setDaemon(true);
+        worker.start();
+        log.info("预览文件预热已开启，队列容量: {}, 每秒下载数: {}", warmup.getQueueCapacity(), warmup.getPermitsPerSecond());
+    }
+
+    @Override
+    public void destroy() {
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * 将检索结果中引用的文档加入预热队列
+     *
+     * @param ragFlowResp RAGFlow检索结果
+     */
+    public void submit(RAGFlowKnowledgeResp ragFlowResp) {
+        if (queue == null || ragFlowResp == null || ragFlowResp.getData() == null) {
+            return;
+        }
+
+        // 按检索结果中出现的先后顺序预热，排名靠前的文档优先
+        Set<String> documentIds = new LinkedHashSet<>();
+        if (ragFlowResp.getData().getChunks() != null) {
+            ragFlowResp.getData().getChunks().stream()
+                    .map(RAGFlowKnowledgeResp.RespData.Chunk::getDocumentId)
+                    .filter(Objects::nonNull)
+                    .forEach(documentIds::add);
+        }
+
+        int limit = previewCacheConfig.getWarmup().getMaxDocumentsPerRetrieval();
+        documentIds.stream().limit(limit).forEach(this::enqueue);
+    }
+
+    /**
+     * 单个文档入队，已在队列中的文档不重复入队，队列满时丢弃
+     */
+    private void enqueue(String documentId) {
+        if (!queued.add(documentId)) {
+            return;
+        }
+        if (!queue.offer(documentId)) {
+            queued.remove(documentId);
+            log.debug("预热队列已满，丢弃文档: {}", documentId);
+        }
+    }
+
+    /**
+     * 后台预热线程，按配置的速率依次下载
+     */
+    private void runWorker() {
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / Math.max(0.01, previewCacheConfig.getWarmup().getPermitsPerSecond()));
+        long nextPermit = System.nanoTime();
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                String documentId = queue.take();
+
+                // 限速：两次下载的开始时间至少间隔intervalNanos
+                long waitNanos = nextPermit - System.nanoTime();
+                if (waitNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                }
+                nextPermit = Math.max(nextPermit, System.nanoTime()) + intervalNanos;
+
+                warm(documentId);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        log.info("预览文件预热线程已停止");
+    }
+
+    private void warm(String documentId) {
+        try {
+            Document document = documentService.lambdaQuery()
+                    .eq(Document::getId, documentId)
+                    .one();
+
+            // 非RAGFlow文档（如DIOS资源）无需预热
+            if (document == null) {
+                return;
+            }
+
+            previewFileCache.warm(document,
+                    (doc, outputStream) -> knowledgeFileService.downloadFile(doc.getId(), outputStream) != null);
+            log.debug("预览文件预热完成: {}", documentId);
+        } catch (Exception e) {
+            log.warn("预览文件预热失败: {}, 错误: {}", documentId, e.getMessage());
+        } finally {
+            queued.remove(documentId);
+        }
+    }
+}
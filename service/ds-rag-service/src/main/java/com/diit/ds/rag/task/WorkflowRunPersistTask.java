@@ -0,0 +1,208 @@
+package com.diit.ds.rag.task;
+
+import com.diit.ds.domain.pojo.entity.WorkflowChunk;
+import com.diit.ds.domain.pojo.entity.WorkflowDocAgg;
+import com.diit.ds.domain.pojo.entity.WorkflowRun;
+import com.diit.ds.rag.service.KnowledgeFilePreviewService;
+import com.diit.ds.rag.service.WorkflowChunkService;
+import com.diit.ds.rag.service.WorkflowDocAggService;
+import com.diit.ds.rag.service.WorkflowRunService;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 检索运行记录异步持久化任务
+ *
+ * 检索结果（运行记录、文档片段、文档聚合）先进入有界队列，由后台线程攒批后批量写入数据库，
+ * 不再占用检索请求的响应时间；队列满或未开启异步写入时退化为同步写入，应用关闭时写完队列中的剩余数据。
+ * 每批数据在primary库的同一个事务中写入，失败时整批回滚后再逐条重试，不会重复写入已提交的数据
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class WorkflowRunPersistTask implements InitializingBean, DisposableBean {
+
+    private final WorkflowRunService workflowRunService;
+    private final WorkflowChunkService workflowChunkService;
+    private final WorkflowDocAggService workflowDocAggService;
+    private final KnowledgeFilePreviewService knowledgeFilePreviewService;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${rag.persist.write-behind.enabled:true}")
+    private boolean enabled;
+
+    @Value("${rag.persist.write-behind.queue-capacity:2000}")
+    private int queueCapacity;
+
+    @Value("${rag.persist.write-behind.batch-size:50}")
+    private int batchSize;
+
+    @Value("${rag.persist.write-behind.flush-interval-ms:200}")
+    private long flushIntervalMs;
+
+    private BlockingQueue<PendingRun> queue;
+
+    private Thread worker;
+
+    private volatile boolean running;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled) {
+            log.info("检索运行记录异步写入未开启，使用同步写入");
+            return;
+        }
+
+        queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        running = true;
+        worker = new Thread(this::runWorker, "workflow-run-persist");
+        worker.setDaemon(true);
+        worker.start();
+        log.info("检索运行记录异步写入已开启，队列容量: {}, 批大小: {}", queueCapacity, batchSize);
+    }
+
+    /**
+     * 应用关闭时停止后台线程，并将队列中剩余的数据写入数据库
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        if (worker == null) {
+            return;
+        }
+
+        running = false;
+        worker.interrupt();
+        worker.join(TimeUnit.SECONDS.toMillis(30));
+
+        List<PendingRun> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            log.info("应用关闭，写入剩余的检索运行记录: {} 条", remaining.size());
+            write(remaining);
+        }
+    }
+
+    /**
+     * 提交一次检索运行的持久化数据
+     *
+     * @param workflowRun 运行记录
+     * @param chunks 文档片段
+     * @param docAggs 文档聚合
+     */
+    public void submit(WorkflowRun workflowRun, List<WorkflowChunk> chunks, List<WorkflowDocAgg> docAggs) {
+        PendingRun pendingRun = new PendingRun(workflowRun, chunks, docAggs);
+
+        if (queue == null || !running || !queue.offer(pendingRun)) {
+            // 未开启异步写入或队列已满，直接同步写入
+            if (queue != null) {
+                log.warn("检索运行记录写入队列已满，同步写入: {}", workflowRun.getWorkFlowRunId());
+            }
+            writeOne(pendingRun);
+        }
+    }
+
+    /**
+     * 后台写入线程：等待第一条数据后在刷新间隔内继续攒批，然后批量写入
+     */
+    private void runWorker() {
+        List<PendingRun> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                PendingRun first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                // 关闭时被中断，剩余数据由destroy写入
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 批量写入多次检索运行的数据，整批在一个事务中提交，失败时逐条重试以隔离问题数据
+     */
+    private void write(List<PendingRun> batch) {
+        List<WorkflowRun> runs = new ArrayList<>(batch.size());
+        List<WorkflowChunk> chunks = new ArrayList<>();
+        List<WorkflowDocAgg> docAggs = new ArrayList<>();
+        for (PendingRun pendingRun : batch) {
+            runs.add(pendingRun.getWorkflowRun());
+            chunks.addAll(pendingRun.getChunks());
+            docAggs.addAll(pendingRun.getDocAggs());
+        }
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                workflowRunService.saveBatch(runs, batchSize);
+                if (!chunks.isEmpty()) {
+                    workflowChunkService.saveBatch(chunks, batchSize * 10);
+                }
+                if (!docAggs.isEmpty()) {
+                    workflowDocAggService.saveBatch(docAggs, batchSize * 10);
+                }
+            });
+            log.debug("批量写入检索运行记录: {} 条, 片段: {} 条, 文档聚合: {} 条", runs.size(), chunks.size(), docAggs.size());
+            runs.forEach(run -> knowledgeFilePreviewService.evictKnowledgeQueryInfo(run.getWorkFlowRunId()));
+        } catch (Exception e) {
+            // 整批已回滚，逐条重试不会产生重复数据
+            log.error("批量写入检索运行记录失败，改为逐条写入: {}", e.getMessage(), e);
+            batch.forEach(this::writeOne);
+        }
+    }
+
+    /**
+     * 在一个事务中写入单次检索运行的数据
+     */
+    private void writeOne(PendingRun pendingRun) {
+        try {
+            // 失败的批次已回滚，其中生成的主键未被使用，清空后重新分配
+            pendingRun.getWorkflowRun().setId(null);
+            pendingRun.getChunks().forEach(chunk -> chunk.setId(null));
+            pendingRun.getDocAggs().forEach(docAgg -> docAgg.setId(null));
+
+            transactionTemplate.executeWithoutResult(status -> {
+                workflowRunService.save(pendingRun.getWorkflowRun());
+                if (!pendingRun.getChunks().isEmpty()) {
+                    workflowChunkService.saveBatch(pendingRun.getChunks());
+                }
+                if (!pendingRun.getDocAggs().isEmpty()) {
+                    workflowDocAggService.saveBatch(pendingRun.getDocAggs());
+                }
+            });
+            knowledgeFilePreviewService.evictKnowledgeQueryInfo(pendingRun.getWorkflowRun().getWorkFlowRunId());
+        } catch (Exception e) {
+            log.error("持久化检索运行记录失败，workFlowRunId: {}", pendingRun.getWorkflowRun().getWorkFlowRunId(), e);
+        }
+    }
+
+    /**
+     * 待写入的检索运行数据
+     */
+    @Data
+    @AllArgsConstructor
+    private static class PendingRun {
+        private WorkflowRun workflowRun;
+        private List<WorkflowChunk> chunks;
+        private List<WorkflowDocAgg> docAggs;
+    }
+}
@@ -1,10 +1,16 @@
 package com.diit.ds.web;
 
+import com.diit.ds.auth.annotation.NotNeedAuth;
 import com.diit.ds.common.context.UserContext;
+import com.diit.ds.chat.config.DifyConfig;
+import com.diit.ds.chat.domain.dto.AgentIconDTO;
+import com.diit.ds.chat.domain.dto.AppResponseDTO;
 import com.diit.ds.chat.service.LLMService;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -22,6 +28,7 @@ import java.util.Map;
 public class DifyChatAPIController {
 
     private final LLMService llmService;
+    private final DifyConfig difyConfig;
     
     /**
      * 处理聊天消息请求
@@ -54,6 +61,34 @@ public class DifyChatAPIController {
         }
     }
 
+    /**
+     * 流式响应断线重连
+     * 重放Last-Event-ID之后已转发的事件，生成未结束时继续接收后续事件；任务不存在、已过期或不属于当前用户时返回204，客户端不再重连
+     */
+    @GetMapping("/chat-messages/{taskId}/stream")
+    public ResponseEntity<SseEmitter> resumeChatMessages(
+            @PathVariable String taskId,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventIdHeader,
+            @RequestParam(value = "last_event_id", required = false) String lastEventIdParam,
+            @RequestParam(value = "user", required = false) String user) {
+        String lastEventId = lastEventIdHeader != null ? lastEventIdHeader : lastEventIdParam;
+        Long lastId = null;
+        if (lastEventId != null && !lastEventId.isBlank()) {
+            try {
+                lastId = Long.parseLong(lastEventId.trim());
+            } catch (NumberFormatException e) {
+                log.warn("无效的Last-Event-ID: {}", lastEventId);
+            }
+        }
+        log.info("流式响应断线重连，taskId: {}, lastEventId: {}", taskId, lastId);
+
+        SseEmitter emitter = new SseEmitter(-1L); // 无超时
+        if (!llmService.resumeStreamingResponse(taskId, lastId, user, emitter)) {
+            return ResponseEntity.noContent().build();
+        }
+        return ResponseEntity.ok(emitter);
+    }
+
     /**
      * 停止生成响应
      * 用于中断正在进行的流式响应
@@ -72,12 +107,13 @@ public class DifyChatAPIController {
      * 用于对消息进行评价（如点赞、点踩等）
      */
     @PostMapping("/messages/{messageId}/feedbacks")
-    public Map<String, Object> submitMessageFeedback(
+    public void submitMessageFeedback(
             @PathVariable String messageId,
             @RequestBody Map<String, Object> requestBody,
-            @RequestParam(required = false) String agentId) {
+            @RequestParam(required = false) String agentId,
+            HttpServletResponse response) {
         log.info("提交消息反馈，messageId: {}, feedback: {}, agentId: {}", messageId, requestBody, agentId);
-        return llmService.submitMessageFeedback(agentId, messageId, requestBody);
+        llmService.proxyMessageFeedback(agentId, messageId, requestBody, response);
     }
     
     /**
@@ -98,13 +134,14 @@ public class DifyChatAPIController {
      * 用于获取用户的消息历史记录
      */
     @GetMapping("/messages")
-    public Map<String, Object> getMessages(
+    public void getMessages(
             @RequestParam(defaultValue = "1") String user,
             @RequestParam(required = false) String conversation_id,
             @RequestParam(required = false, defaultValue = "20") Integer limit,
-            @RequestParam(required = false) String agentId) {
+            @RequestParam(required = false) String agentId,
+            HttpServletResponse response) {
         log.info("获取消息列表，user: {}, conversation_id: {}, limit: {}, agentId: {}", user, conversation_id, limit, agentId);
-        return llmService.getMessages(agentId, user, conversation_id, limit);
+        llmService.proxyMessages(agentId, user, conversation_id, limit, response);
     }
     
     /**
@@ -112,14 +149,15 @@ public class DifyChatAPIController {
      * 用于获取用户的对话历史记录
      */
     @GetMapping("/conversations")
-    public Map<String, Object> getConversations(
+    public void getConversations(
             @RequestParam(defaultValue = "1") String user,
             @RequestParam(required = false) String last_id,
             @RequestParam(required = false, defaultValue = "20") Integer limit,
             @RequestParam(required = false) String keyWord,
-            @RequestParam(required = false) String agentId) {
+            @RequestParam(required = false) String agentId,
+            HttpServletResponse response) {
         log.info("获取对话列表，user: {}, last_id: {}, limit: {}, agentId: {}", user, last_id, limit, agentId);
-        return llmService.getConversations(agentId, user, last_id, limit, keyWord);
+        llmService.proxyConversations(agentId, user, last_id, limit, keyWord, response);
     }
     
     /**
@@ -127,12 +165,13 @@ public class DifyChatAPIController {
      * 用于删除指定的对话
      */
     @DeleteMapping("/conversations/{conversationId}")
-    public Map<String, Object> deleteConversation(
+    public void deleteConversation(
             @PathVariable String conversationId,
             @RequestBody Map<String, Object> requestBody,
-            @RequestParam(required = false) String agentId) {
+            @RequestParam(required = false) String agentId,
+            HttpServletResponse response) {
         log.info("删除对话，conversationId: {}, requestBody: {}, agentId: {}", conversationId, requestBody, agentId);
-        return llmService.deleteConversation(agentId, conversationId, requestBody);
+        llmService.proxyDeleteConversation(agentId, conversationId, requestBody, response);
     }
     
     /**
@@ -140,12 +179,13 @@ public class DifyChatAPIController {
      * 用于重命名指定的对话
      */
     @PostMapping("/conversations/{conversationId}/name")
-    public Map<String, Object> renameConversation(
+    public void renameConversation(
             @PathVariable String conversationId,
             @RequestBody Map<String, Object> requestBody,
-            @RequestParam(required = false) String agentId) {
+            @RequestParam(required = false) String agentId,
+            HttpServletResponse response) {
         log.info("重命名对话，conversationId: {}, requestBody: {}, agentId: {}", conversationId, requestBody, agentId);
-        return llmService.renameConversation(agentId, conversationId, requestBody);
+        llmService.proxyRenameConversation(agentId, conversationId, requestBody, response);
     }
     
     /**
@@ -183,27 +223,72 @@ public class DifyChatAPIController {
      * 获取应用基本信息
      */
     @GetMapping("/info")
-    public Map<String, Object> getAppInfo(@RequestParam(required = false) String agentId) {
+    public ResponseEntity<byte[]> getAppInfo(@RequestParam(required = false) String agentId) {
         log.info("获取应用基本信息，agentId: {}", agentId);
-        return llmService.getAppInfo(agentId);
+        return cacheable(llmService.getAppInfo(agentId));
     }
     
     /**
      * 获取应用参数信息
      */
     @GetMapping("/parameters")
-    public Map<String, Object> getParameters(@RequestParam(required = false) String agentId) {
+    public ResponseEntity<byte[]> getParameters(@RequestParam(required = false) String agentId) {
         log.info("获取应用参数信息，agentId: {}", agentId);
-        return llmService.getParameters(agentId);
+        return cacheable(llmService.getParameters(agentId));
     }
     
     /**
      * 获取应用元数据
+     * 图片图标通过icon字段中的地址单独获取
      */
     @GetMapping("/meta")
-    public Map<String, Object> getMeta(@RequestParam(required = false) String agentId) {
+    public ResponseEntity<byte[]> getMeta(@RequestParam(required = false) String agentId) {
         log.info("获取应用元数据，agentId: {}", agentId);
-        return llmService.getMeta(agentId);
+        return cacheable(llmService.getMeta(agentId));
+    }
+
+    /**
+     * 获取智能体图标
+     * 图标由页面的img标签直接加载，无法携带Authorization请求头，不需要认证
+     */
+    @NotNeedAuth
+    @GetMapping("/icon")
+    public ResponseEntity<byte[]> getIcon(@RequestParam(required = false) String agentId) {
+        AgentIconDTO icon = llmService.getIcon(agentId);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(icon.getContentType()))
+                .cacheControl(CacheControl.maxAge(difyConfig.getAppCache().getClientMaxAge()).cachePublic())
+                .eTag(icon.getEtag())
+                .body(icon.getData());
+    }
+
+    /**
+     * 使应用静态信息缓存失效，应用在Dify重新发布后调用
+     * 不指定agentId时失效全部缓存
+     */
+    @DeleteMapping("/app-cache")
+    public Map<String, Object> evictAppCache(@RequestParam(required = false) String agentId) {
+        log.info("失效应用静态信息缓存，agentId: {}", agentId);
+        llmService.evictAppCache(agentId);
+        return Map.of("result", "success");
+    }
+
+    /**
+     * 带ETag和Cache-Control返回缓存的应用静态信息（Dify返回的原始JSON字节），请求头If-None-Match与ETag一致时返回304
+     */
+    private ResponseEntity<byte[]> cacheable(AppResponseDTO response) {
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .cacheControl(clientCacheControl());
+        if (response.getEtag() != null) {
+            builder.eTag(response.getEtag());
+        }
+        return builder.body(response.getBody());
+    }
+
+    private CacheControl clientCacheControl() {
+        // 接口需要登录，只允许浏览器缓存，不允许代理等共享缓存
+        return CacheControl.maxAge(difyConfig.getAppCache().getClientMaxAge()).cachePrivate();
     }
 
     /**
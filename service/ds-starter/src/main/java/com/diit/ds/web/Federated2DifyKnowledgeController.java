@@ -0,0 +1,44 @@
+package com.diit.ds.web;
+
+import com.diit.ds.rag.domain.req.DifyKnowledgeReq;
+import com.diit.ds.rag.domain.resp.DifyKnowledgeResp;
+import com.diit.ds.rag.service.DifyKnowledgeService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Dify外接联合检索API控制器
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/federated/api/knowledge")
+@Tag(name = "联合知识查询", description = "并行查询RAGFlow、DIOS、H3C知识库并融合结果")
+public class Federated2DifyKnowledgeController {
+
+    private final DifyKnowledgeService difyKnowledgeService;
+
+    public Federated2DifyKnowledgeController(@Qualifier("federated2DifyKnowledgeServiceImpl") DifyKnowledgeService difyKnowledgeService) {
+        this.difyKnowledgeService = difyKnowledgeService;
+    }
+
+    /**
+     * 从多个知识库后端中检索相关内容
+     *
+     * @param req 检索请求
+     * @return 融合后的检索结果
+     */
+    @PostMapping("/retrieval")
+    @Operation(summary = "适配Dify外部知识库的联合检索接口", description = "并行查询已开启的知识库后端，单个后端超时不影响其余结果")
+    public DifyKnowledgeResp retrieveKnowledge(@RequestBody DifyKnowledgeReq req) {
+        log.info("接收到联合检索请求: {}", req);
+        DifyKnowledgeResp resp = difyKnowledgeService.retrieveKnowledge(req);
+        log.info("联合检索结果数量: {}", resp.getRecords() != null ? resp.getRecords().size() : 0);
+        return resp;
+    }
+}
@@ -0,0 +1,22 @@
+-- agent_kdb 绑定关系变化通知（primary库）
+-- 任何途径修改agent_kdb表后都会通过 agent_kdb_changed 通道通知各实例失效对应智能体的知识库绑定缓存
+
+CREATE OR REPLACE FUNCTION notify_agent_kdb_changed() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        PERFORM pg_notify('agent_kdb_changed', COALESCE(OLD.app_id, ''));
+    ELSE
+        PERFORM pg_notify('agent_kdb_changed', COALESCE(NEW.app_id, ''));
+        IF TG_OP = 'UPDATE' AND OLD.app_id IS DISTINCT FROM NEW.app_id THEN
+            PERFORM pg_notify('agent_kdb_changed', COALESCE(OLD.app_id, ''));
+        END IF;
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS agent_kdb_changed ON agent_kdb;
+
+CREATE TRIGGER agent_kdb_changed
+    AFTER INSERT OR UPDATE OR DELETE ON agent_kdb
+    FOR EACH ROW EXECUTE FUNCTION notify_agent_kdb_changed();
@@ -0,0 +1,36 @@
+-- agents 智能体变化通知（primary库）
+-- 任何途径修改agents表后都会通过 agents_changed 通道通知各实例失效对应智能体的凭证与应用静态信息缓存，
+-- 不依赖修改方更新update_date。
+-- 更新只在缓存的列（id、api_key、name、icon、update_date）变化时通知，收藏数、浏览数等计数更新不触发失效
+
+CREATE OR REPLACE FUNCTION notify_agents_changed() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        PERFORM pg_notify('agents_changed', OLD.id::text);
+    ELSE
+        PERFORM pg_notify('agents_changed', NEW.id::text);
+        IF TG_OP = 'UPDATE' AND OLD.id IS DISTINCT FROM NEW.id THEN
+            PERFORM pg_notify('agents_changed', OLD.id::text);
+        END IF;
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS agents_changed ON agents;
+DROP TRIGGER IF EXISTS agents_changed_update ON agents;
+
+CREATE TRIGGER agents_changed
+    AFTER INSERT OR DELETE ON agents
+    FOR EACH ROW EXECUTE FUNCTION notify_agents_changed();
+
+-- WHEN条件中引用OLD和NEW只能用于单独的UPDATE触发器
+CREATE TRIGGER agents_changed_update
+    AFTER UPDATE ON agents
+    FOR EACH ROW
+    WHEN (OLD.id IS DISTINCT FROM NEW.id
+        OR OLD.api_key IS DISTINCT FROM NEW.api_key
+        OR OLD.name IS DISTINCT FROM NEW.name
+        OR OLD.icon IS DISTINCT FROM NEW.icon
+        OR OLD.update_date IS DISTINCT FROM NEW.update_date)
+    EXECUTE FUNCTION notify_agents_changed();
@@ -0,0 +1,8 @@
+-- Dify消息与工作流运行ID的对应关系（primary库）
+-- 流式对话转发时从workflow_started等事件中记录，打开历史消息时优先从此表查询，不再访问Dify的数据库
+
+CREATE TABLE IF NOT EXISTS message_workflow_run (
+    message_id      VARCHAR(64) PRIMARY KEY,
+    workflow_run_id VARCHAR(64) NOT NULL,
+    create_time     TIMESTAMP   NOT NULL DEFAULT now()
+);